@@ -0,0 +1,71 @@
+package com.github.zerh.servletio;
+
+import java.lang.reflect.Method;
+
+import com.github.zerh.servletio.annotation.Get;
+import com.github.zerh.servletio.annotation.Param;
+
+/**
+ * Controller shared by the benchmarks. Actions return a precomputed result
+ * so dispatch, not rendering, dominates the measurements.
+ */
+public class BenchServlet extends ServletIO {
+
+    static final Result OK = Result.precomputed(200, "text/plain", "ok");
+
+    public static class Form {
+
+        private String name;
+        private int age;
+        private String[] tags;
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public void setAge(int age) {
+            this.age = age;
+        }
+
+        public void setTags(String[] tags) {
+            this.tags = tags;
+        }
+    }
+
+    @Get("/users")
+    public Result users() {
+        return OK;
+    }
+
+    @Get("/users/:id")
+    public Result user(@Param(":id") int id) {
+        return OK;
+    }
+
+    @Get("/search")
+    public Result search(@Param("q") String q, @Param("page") int page) {
+        return OK;
+    }
+
+    /**
+     * @return a router with <code>routes</code> static and as many
+     *         parametric templates, all mapped to {@link #user(int)}
+     */
+    Router router(int routes) throws NoSuchMethodException {
+        Method user = BenchServlet.class.getMethod("user", int.class);
+        RouteTable.Action action = RouteTable.Action.of(this, user);
+
+        Router router = new Router();
+        for (int i = 0; i < routes; i++) {
+            router.add("/api/v1/resource" + i + "/items", action);
+            router.add("/api/v1/resource" + i + "/items/:id", action);
+        }
+        return router;
+    }
+
+    static BenchServlet create() {
+        BenchServlet servlet = new BenchServlet();
+        servlet.init();
+        return servlet;
+    }
+}
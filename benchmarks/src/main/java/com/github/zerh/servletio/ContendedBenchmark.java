@@ -0,0 +1,79 @@
+package com.github.zerh.servletio;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The dispatch of {@link FilterChainBenchmark} and the binding of
+ * {@link RequestBenchmark} from four threads sharing one servlet, as the
+ * request threads of a container do, each with its own requests and
+ * response. Shared caches and counters show up as the difference with the
+ * single threaded runs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ContendedBenchmark {
+
+    private BenchServlet plain;
+    private FilteredServlet filtered;
+
+    @Setup
+    public void setup() {
+        plain = BenchServlet.create();
+        filtered = FilteredServlet.create();
+    }
+
+    @State(Scope.Thread)
+    public static class Exchange {
+
+        final MockRequest user = new MockRequest("GET", "/users/42");
+        final MockRequest search = new MockRequest("GET", "/search").param("q", "servlet").param("page", "2");
+        final MockRequest form = new MockRequest("GET", "/users")
+                .param("name", "Ada")
+                .param("age", "36")
+                .param("tags", "admin", "ops");
+        final MockResponse response = new MockResponse();
+    }
+
+    @Benchmark
+    public int unfiltered(Exchange exchange) {
+        exchange.response.recycle();
+        plain.doGet(exchange.user, exchange.response);
+        return exchange.response.getStatus();
+    }
+
+    @Benchmark
+    public int filteredParam(Exchange exchange) {
+        exchange.response.recycle();
+        filtered.doGet(exchange.user, exchange.response);
+        return exchange.response.getStatus();
+    }
+
+    @Benchmark
+    public int filteredQuery(Exchange exchange) {
+        exchange.response.recycle();
+        filtered.doGet(exchange.search, exchange.response);
+        return exchange.response.getStatus();
+    }
+
+    @Benchmark
+    public BenchServlet.Form bindParams(Exchange exchange) {
+        return new Request(exchange.form).bindParams(BenchServlet.Form.class);
+    }
+}
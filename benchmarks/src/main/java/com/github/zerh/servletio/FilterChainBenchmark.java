@@ -0,0 +1,69 @@
+package com.github.zerh.servletio;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Dispatch of the same requests with and without before and after filters,
+ * the difference being the cost of evaluating and calling the chains.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterChainBenchmark {
+
+    private BenchServlet plain;
+    private FilteredServlet filtered;
+
+    private final MockRequest user = new MockRequest("GET", "/users/42");
+    private final MockRequest search = new MockRequest("GET", "/search").param("q", "servlet").param("page", "2");
+    private final MockRequest missing = new MockRequest("GET", "/nowhere");
+    private final MockResponse response = new MockResponse();
+
+    @Setup
+    public void setup() {
+        plain = BenchServlet.create();
+        filtered = FilteredServlet.create();
+    }
+
+    @Benchmark
+    public int unfiltered() {
+        response.recycle();
+        plain.doGet(user, response);
+        return response.getStatus();
+    }
+
+    @Benchmark
+    public int filteredParam() {
+        response.recycle();
+        filtered.doGet(user, response);
+        return response.getStatus();
+    }
+
+    @Benchmark
+    public int filteredQuery() {
+        response.recycle();
+        filtered.doGet(search, response);
+        return response.getStatus();
+    }
+
+    @Benchmark
+    public int filteredMissing() {
+        response.recycle();
+        filtered.doGet(missing, response);
+        return response.getStatus();
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.zerh.servletio;
+
+import com.github.zerh.servletio.annotation.After;
+import com.github.zerh.servletio.annotation.Before;
+import com.github.zerh.servletio.annotation.Get;
+import com.github.zerh.servletio.annotation.Param;
+
+/**
+ * The routes of {@link BenchServlet} with a mix of unconditional,
+ * <code>only</code> and <code>unless</code> filters, some of which skip each
+ * benchmarked route. ServletIO maps the methods declared by the servlet
+ * class itself, hence the actions are repeated here.
+ */
+public class FilteredServlet extends ServletIO {
+
+    @Get("/users")
+    public Result users() {
+        return BenchServlet.OK;
+    }
+
+    @Get("/users/:id")
+    public Result user(@Param(":id") int id) {
+        return BenchServlet.OK;
+    }
+
+    @Get("/search")
+    public Result search(@Param("q") String q, @Param("page") int page) {
+        return BenchServlet.OK;
+    }
+
+    @Before
+    public Result authenticate(Request request) {
+        return null;
+    }
+
+    @Before(only = "/users/:id", priority = 1)
+    public Result loadUser(Request request) {
+        return null;
+    }
+
+    @Before(unless = "/search")
+    public Result audit(Request request) {
+        return null;
+    }
+
+    @After(only = { "/admin", "/admin/:section" })
+    public Result adminLog(Request request) {
+        return null;
+    }
+
+    @After
+    public Result timing(Response response) {
+        return null;
+    }
+
+    static FilteredServlet create() {
+        FilteredServlet servlet = new FilteredServlet();
+        servlet.init();
+        return servlet;
+    }
+}
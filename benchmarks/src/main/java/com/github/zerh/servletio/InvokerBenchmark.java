@@ -0,0 +1,66 @@
+package com.github.zerh.servletio;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Calling an action through the method handle {@link Invoker} against
+ * <code>Method.invoke</code>, alone and from four threads sharing the same
+ * invokers, as the request threads of a servlet do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InvokerBenchmark {
+
+    private final BenchServlet servlet = new BenchServlet();
+    private final Object[] args = { "servlet", 2 };
+
+    private Method method;
+    private Invoker handle;
+    private Invoker reflection;
+
+    @Setup
+    public void setup() throws Exception {
+        method = BenchServlet.class.getMethod("search", String.class, int.class);
+        handle = new Invoker.HandleInvoker(servlet, method);
+        reflection = new Invoker.ReflectionInvoker(servlet, method);
+    }
+
+    @Benchmark
+    public Object methodHandle() throws Exception {
+        return handle.invoke(args);
+    }
+
+    @Benchmark
+    public Object methodInvoke() throws Exception {
+        return reflection.invoke(args);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object methodHandleContended() throws Exception {
+        return handle.invoke(args);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object methodInvokeContended() throws Exception {
+        return reflection.invoke(args);
+    }
+}
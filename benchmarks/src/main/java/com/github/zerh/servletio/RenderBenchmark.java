@@ -0,0 +1,104 @@
+package com.github.zerh.servletio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Result#render} of a result built per request against the same
+ * content precomputed once, and of the same list serialized by
+ * {@link Result#json(Object)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+    @Param({ "16", "1024", "16384" })
+    int size;
+
+    private String content;
+    private Result precomputed;
+    private List<User> users;
+
+    private final MockRequest raw = new MockRequest("GET", "/users");
+    private final MockResponse rawResponse = new MockResponse();
+    private Request request;
+    private Response response;
+
+    @Setup
+    public void setup() {
+        StringBuilder json = new StringBuilder(size);
+        while (json.length() < size) json.append("{\"id\":1,\"name\":\"x\"},");
+        content = json.substring(0, size);
+
+        precomputed = Result.precomputed(200, "application/json", content);
+
+        users = new ArrayList<User>();
+        for (int i = 0; i < Math.max(1, size / 20); i++) users.add(new User(1, "x"));
+        request = new Request(raw);
+        response = new Response(rawResponse);
+    }
+
+    @Benchmark
+    public long render() {
+        rawResponse.recycle();
+        new Result(content).asJson().render(request, response);
+        return rawResponse.written();
+    }
+
+    @Benchmark
+    public long renderWithHeaders() {
+        rawResponse.recycle();
+        new Result(content).asJson().withHeader("X-Request", "1").withNoCache().render(request, response);
+        return rawResponse.written();
+    }
+
+    @Benchmark
+    public long renderJson() {
+        rawResponse.recycle();
+        Result.json(users).render(request, response);
+        return rawResponse.written();
+    }
+
+    @Benchmark
+    public long renderPrecomputed() {
+        rawResponse.recycle();
+        precomputed.render(request, response);
+        return rawResponse.written();
+    }
+
+    public static class User {
+
+        private final int id;
+        private final String name;
+
+        User(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
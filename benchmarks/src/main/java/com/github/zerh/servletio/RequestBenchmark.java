@@ -0,0 +1,118 @@
+package com.github.zerh.servletio;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building a {@link Request} and reading converted parameters, beans and
+ * JSON bodies from it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestBenchmark {
+
+    private final MockRequest raw = new MockRequest("GET", "/users")
+            .param("id", "42")
+            .param("ids", "1", "2", "3", "4", "5", "6", "7", "8")
+            .param("name", "Ada")
+            .param("age", "36")
+            .param("tags", "admin", "ops")
+            .header("User-Agent", "jmh");
+
+    private final Request request = new Request(raw);
+
+    private final MockRequest json = new MockRequest("POST", "/users")
+            .header("Content-Type", "application/json")
+            .body("{\"name\":\"Ada\",\"age\":36,\"tags\":[\"admin\",\"ops\"]}".getBytes(StandardCharsets.UTF_8));
+
+    @Benchmark
+    public Request construct() {
+        return new Request(raw);
+    }
+
+    /**
+     * The values the constructor copied before they were read lazily, read
+     * here on construction so its allocation can be compared with the one
+     * of {@link #construct()}.
+     */
+    @Benchmark
+    public void constructEager(Blackhole blackhole) {
+        Request request = new Request(raw);
+        blackhole.consume(request.url());
+        blackhole.consume(request.ip());
+        blackhole.consume(request.userAgent());
+        blackhole.consume(request.cookies());
+        blackhole.consume(request.queryParams());
+        blackhole.consume(request.attributes());
+        blackhole.consume(request.headers());
+    }
+
+    @Benchmark
+    public String paramString() {
+        return request.param("name");
+    }
+
+    @Benchmark
+    public Integer paramInt() throws Exception {
+        return request.param("id", Integer.class);
+    }
+
+    @Benchmark
+    public int[] paramIntArray() throws Exception {
+        return request.parameterValues("ids", int.class);
+    }
+
+    @Benchmark
+    public BenchServlet.Form bindParams() {
+        return request.bindParams(BenchServlet.Form.class);
+    }
+
+    /**
+     * The loop <code>bindParams</code> ran before binders were cached: the
+     * setters looked up and called through reflection on each request. The
+     * old loop dropped the converted values, they are set here so both
+     * benchmarks do the same work.
+     */
+    @Benchmark
+    public BenchServlet.Form bindParamsReflective() throws Exception {
+        BenchServlet.Form form = BenchServlet.Form.class.getDeclaredConstructor().newInstance();
+
+        for (Method m : BenchServlet.Form.class.getMethods()) {
+            String name = m.getName();
+            if (!name.startsWith("set") || m.getParameterCount() != 1) continue;
+
+            String prop = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+            Class<?> type = m.getParameterTypes()[0];
+            if (type.isArray()) {
+                String[] values = raw.getParameterValues(prop);
+                if (values != null) m.invoke(form, Converters.convert(values, type.getComponentType()));
+            } else {
+                String value = raw.getParameter(prop);
+                if (value != null) m.invoke(form, Converters.convert(value, type));
+            }
+        }
+        return form;
+    }
+
+    @Benchmark
+    public BenchServlet.Form bindJson() throws IOException {
+        return new Request(json).json(BenchServlet.Form.class);
+    }
+}
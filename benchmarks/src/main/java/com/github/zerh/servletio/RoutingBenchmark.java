@@ -0,0 +1,94 @@
+package com.github.zerh.servletio;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Route lookup alone and through {@link ServletIO#process}, for exact,
+ * parametric and missing paths against 10 to 1000 mapped templates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoutingBenchmark {
+
+    @Param({ "10", "100", "1000" })
+    int routes;
+
+    private BenchServlet servlet;
+    private Router router;
+
+    private String exactPath;
+    private String paramPath;
+    private String missingPath;
+
+    private MockRequest exact;
+    private MockRequest param;
+    private MockRequest missing;
+    private final MockResponse response = new MockResponse();
+
+    @Setup
+    public void setup() throws Exception {
+        servlet = BenchServlet.create();
+        router = servlet.router(routes);
+
+        int middle = routes / 2;
+        exactPath = "/api/v1/resource" + middle + "/items";
+        paramPath = "/api/v1/resource" + middle + "/items/42";
+        missingPath = "/api/v1/resource" + middle + "/missing/42";
+
+        exact = new MockRequest("GET", exactPath);
+        param = new MockRequest("GET", paramPath);
+        missing = new MockRequest("GET", missingPath);
+    }
+
+    @Benchmark
+    public RouteMatch matchExact() {
+        return router.match(exactPath);
+    }
+
+    @Benchmark
+    public RouteMatch matchParam() {
+        return router.match(paramPath);
+    }
+
+    @Benchmark
+    public RouteMatch matchMissing() {
+        return router.match(missingPath);
+    }
+
+    @Benchmark
+    public int processExact() {
+        response.recycle();
+        servlet.process(router, exact, response);
+        return response.getStatus();
+    }
+
+    @Benchmark
+    public int processParam() {
+        response.recycle();
+        servlet.process(router, param, response);
+        return response.getStatus();
+    }
+
+    @Benchmark
+    public int processMissing() {
+        response.recycle();
+        servlet.process(router, missing, response);
+        return response.getStatus();
+    }
+}
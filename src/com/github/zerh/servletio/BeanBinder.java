@@ -0,0 +1,283 @@
+package com.github.zerh.servletio;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Binds request parameters to a new instance of a bean class. Binders are
+ * built once per class from its public setters and fields and write the
+ * converted values through method handles.
+ * <p>
+ * Besides plain properties, nested properties (<code>address.city</code>)
+ * and indexed lists (<code>items[3].qty</code>) are bound; those need a
+ * getter or a public field to read the nested object back.
+ */
+final class BeanBinder<T> {
+
+    /**
+     * Highest list index accepted from a request, so a parameter name cannot
+     * make the binder allocate huge lists.
+     */
+    static final int MAX_INDEX = 1024;
+
+    private static final ConcurrentMap<Class<?>, BeanBinder<?>> BINDERS = new ConcurrentHashMap<>();
+
+    private static final int SIMPLE = 0;
+    private static final int ARRAY = 1;
+    private static final int LIST = 2;
+    private static final int BEAN = 3;
+
+    private final MethodHandle constructor;
+    private final Map<String, Property> properties;
+    private final Property[] simple;
+    private final boolean nested;
+
+    @SuppressWarnings("unchecked")
+    static <T> BeanBinder<T> of(Class<T> type) {
+        BeanBinder<?> binder = BINDERS.get(type);
+        if (binder == null) binder = BINDERS.computeIfAbsent(type, BeanBinder::new);
+
+        return (BeanBinder<T>) binder;
+    }
+
+    private BeanBinder(Class<T> type) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        try {
+            Constructor<T> ctr = type.getDeclaredConstructor();
+            ctr.setAccessible(true);
+            constructor = lookup.unreflectConstructor(ctr).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException ex) {
+            throw new IllegalArgumentException(type.getName() + " has no accessible no-arg constructor", ex);
+        }
+
+        properties = new HashMap<String, Property>();
+        Map<String, Method> getters = new HashMap<String, Method>();
+
+        // public methods only: the request must not reach internal setters
+        for (Method m : type.getMethods()) {
+            if (Modifier.isStatic(m.getModifiers()) || m.isBridge() || m.getDeclaringClass() == Object.class) continue;
+
+            String name = m.getName();
+            if (name.length() > 3 && name.startsWith("set") && m.getParameterCount() == 1) {
+                String prop = propertyName(name.substring(3));
+                if (!properties.containsKey(prop)) {
+                    properties.put(prop, new Property(prop, m.getParameterTypes()[0],
+                            m.getGenericParameterTypes()[0], setter(lookup, m)));
+                }
+            } else if (m.getParameterCount() == 0 && m.getReturnType() != void.class) {
+                if (name.length() > 3 && name.startsWith("get")) getters.putIfAbsent(propertyName(name.substring(3)), m);
+                else if (name.length() > 2 && name.startsWith("is")) getters.putIfAbsent(propertyName(name.substring(2)), m);
+            }
+        }
+
+        for (Field f : type.getFields()) {
+            int modifiers = f.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || properties.containsKey(f.getName()))
+                continue;
+
+            try {
+                Property p = new Property(f.getName(), f.getType(), f.getGenericType(),
+                        lookup.unreflectSetter(f).asType(MethodType.methodType(void.class, Object.class, Object.class)));
+                p.getter = lookup.unreflectGetter(f).asType(MethodType.methodType(Object.class, Object.class));
+                properties.put(p.name, p);
+            } catch (IllegalAccessException ex) {
+                // not bindable
+            }
+        }
+
+        List<Property> simpleList = new ArrayList<Property>();
+        boolean hasNested = false;
+        for (Property p : properties.values()) {
+            Method getter = getters.get(p.name);
+            if (getter != null && p.getter == null) p.getter = getter(lookup, getter);
+
+            if (p.kind == SIMPLE || p.kind == ARRAY) simpleList.add(p);
+            else hasNested = true;
+        }
+
+        simple = simpleList.toArray(new Property[simpleList.size()]);
+        nested = hasNested;
+    }
+
+    private static String propertyName(String name) {
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static MethodHandle setter(MethodHandles.Lookup lookup, Method m) {
+        try {
+            m.setAccessible(true);
+            return lookup.unreflect(m).asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (IllegalAccessException | RuntimeException ex) {
+            throw new IllegalArgumentException("cannot access " + m, ex);
+        }
+    }
+
+    private static MethodHandle getter(MethodHandles.Lookup lookup, Method m) {
+        try {
+            m.setAccessible(true);
+            return lookup.unreflect(m).asType(MethodType.methodType(Object.class, Object.class));
+        } catch (IllegalAccessException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    T newInstance() throws Throwable {
+        return (T) (Object) constructor.invokeExact();
+    }
+
+    T bind(HttpServletRequest request) throws Throwable {
+        T bean = newInstance();
+
+        for (Property p : simple) {
+            if (p.kind == ARRAY) {
+                String[] values = request.getParameterValues(p.name);
+                if (values != null) p.set(bean, Converters.convert(values, p.elementType));
+            } else {
+                String value = request.getParameter(p.name);
+                if (value != null) p.set(bean, Converters.convert(value, p.type));
+            }
+        }
+
+        if (nested) {
+            for (String name : request.getParameterMap().keySet()) {
+                if (name.indexOf('.') > 0 || name.indexOf('[') > 0)
+                    bindPath(this, bean, name, 0, request.getParameter(name));
+            }
+        }
+
+        return bean;
+    }
+
+    private static void bindPath(BeanBinder<?> binder, Object bean, String name, int pos, String value)
+            throws Throwable {
+
+        int end = pos;
+        while (end < name.length() && name.charAt(end) != '.' && name.charAt(end) != '[') end++;
+
+        Property p = binder.properties.get(name.substring(pos, end));
+        if (p == null) return;
+
+        if (end == name.length()) {
+            if (p.kind == SIMPLE) p.set(bean, Converters.convert(value, p.type));
+            return;
+        }
+
+        if (name.charAt(end) == '.') {
+            if (p.kind != BEAN || p.getter == null) return;
+
+            Object child = p.get(bean);
+            if (child == null) {
+                child = of(p.type).newInstance();
+                p.set(bean, child);
+            }
+            bindPath(of(p.type), child, name, end + 1, value);
+            return;
+        }
+
+        if (p.kind != LIST || p.getter == null) return;
+
+        int close = name.indexOf(']', end);
+        if (close < 0) return;
+
+        int index;
+        try {
+            index = Integer.parseInt(name.substring(end + 1, close));
+        } catch (NumberFormatException ex) {
+            return;
+        }
+        if (index < 0 || index > MAX_INDEX) return;
+
+        @SuppressWarnings("unchecked")
+        List<Object> list = (List<Object>) p.get(bean);
+        if (list == null) {
+            list = new ArrayList<Object>();
+            p.set(bean, list);
+        }
+        while (list.size() <= index) list.add(null);
+
+        if (close + 1 == name.length()) {
+            list.set(index, Converters.convert(value, p.elementType));
+        } else if (name.charAt(close + 1) == '.') {
+            Object element = list.get(index);
+            if (element == null) {
+                element = of(p.elementType).newInstance();
+                list.set(index, element);
+            }
+            bindPath(of(p.elementType), element, name, close + 2, value);
+        }
+    }
+
+    private static boolean isConvertible(Class<?> type) {
+        try {
+            Converters.of(type);
+            return true;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private static final class Property {
+
+        final String name;
+        final Class<?> type;
+        final Class<?> elementType;
+        final int kind;
+        final MethodHandle setter;
+        MethodHandle getter;
+
+        Property(String name, Class<?> type, Type genericType, MethodHandle setter) {
+            this.name = name;
+            this.type = type;
+            this.setter = setter;
+
+            if (type.isArray() && isConvertible(type.getComponentType())) {
+                kind = ARRAY;
+                elementType = type.getComponentType();
+            } else if (type.isAssignableFrom(ArrayList.class) && Collection.class.isAssignableFrom(type)) {
+                kind = LIST;
+                elementType = elementType(genericType);
+            } else if (isConvertible(type)) {
+                kind = SIMPLE;
+                elementType = null;
+            } else {
+                kind = BEAN;
+                elementType = null;
+            }
+        }
+
+        private static Class<?> elementType(Type genericType) {
+            if (genericType instanceof ParameterizedType) {
+                Type arg = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+                if (arg instanceof Class) return (Class<?>) arg;
+                if (arg instanceof ParameterizedType) return (Class<?>) ((ParameterizedType) arg).getRawType();
+            }
+            return String.class;
+        }
+
+        void set(Object bean, Object value) throws Throwable {
+            setter.invokeExact(bean, value);
+        }
+
+        Object get(Object bean) throws Throwable {
+            return (Object) getter.invokeExact(bean);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.github.zerh.servletio;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads the properties of a bean class: public getters, public fields and
+ * record components. Readers are built once per class and read through
+ * method handles.
+ * <p>
+ * Getters of non public classes (the entries of a <code>HashMap</code>) are
+ * read through the public class or interface declaring them, and only
+ * when there is none through a method made accessible.
+ */
+final class BeanReader {
+
+    private static final ConcurrentMap<Class<?>, BeanReader> READERS = new ConcurrentHashMap<>();
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+    private static final Comparator<Member> BY_NAME = Comparator.comparing(Member::getName);
+
+    /**
+     * Record components in declaration order, then getters and fields each
+     * sorted by name, so the order is the same on every JVM: the order of
+     * <code>getMethods()</code> and <code>getFields()</code> is unspecified.
+     */
+    final Property[] properties;
+    private final Map<String, Property> byName;
+
+    static BeanReader of(Class<?> type) {
+        BeanReader reader = READERS.get(type);
+        if (reader == null) reader = READERS.computeIfAbsent(type, BeanReader::new);
+
+        return reader;
+    }
+
+    private BeanReader(Class<?> type) {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Map<String, Property> properties = new LinkedHashMap<String, Property>();
+
+        for (Method m : recordAccessors(type)) {
+            MethodHandle handle = getter(lookup, m);
+            if (handle != null) properties.put(m.getName(), new Property(m.getName(), m.getReturnType(), handle));
+        }
+
+        Method[] methods = type.getMethods();
+        Arrays.sort(methods, BY_NAME);
+        for (Method m : methods) {
+            if (Modifier.isStatic(m.getModifiers()) || m.isBridge() || m.getParameterCount() != 0
+                    || m.getReturnType() == void.class || m.getDeclaringClass() == Object.class)
+                continue;
+
+            String name = m.getName();
+            String prop;
+            if (name.length() > 3 && name.startsWith("get")) prop = propertyName(name.substring(3));
+            else if (name.length() > 2 && name.startsWith("is") && m.getReturnType() == boolean.class)
+                prop = propertyName(name.substring(2));
+            else continue;
+
+            if (properties.containsKey(prop)) continue;
+            MethodHandle handle = getter(lookup, m);
+            if (handle != null) properties.put(prop, new Property(prop, m.getReturnType(), handle));
+        }
+
+        Field[] fields = type.getFields();
+        Arrays.sort(fields, BY_NAME);
+        for (Field f : fields) {
+            if (Modifier.isStatic(f.getModifiers()) || properties.containsKey(f.getName())) continue;
+
+            try {
+                f.setAccessible(true);
+                properties.put(f.getName(), new Property(f.getName(), f.getType(),
+                        MethodHandles.lookup().unreflectGetter(f).asType(GETTER)));
+            } catch (IllegalAccessException | RuntimeException ex) {
+                // not readable
+            }
+        }
+
+        this.properties = properties.values().toArray(new Property[properties.size()]);
+        this.byName = properties;
+    }
+
+    /**
+     * @return the property, or null if the class has none of this name
+     */
+    Property property(String name) {
+        return byName.get(name);
+    }
+
+    private static String propertyName(String name) {
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static MethodHandle getter(MethodHandles.Lookup lookup, Method m) {
+        Method accessible = accessible(m.getDeclaringClass(), m);
+
+        try {
+            if (accessible != null) return lookup.unreflect(accessible).asType(GETTER);
+
+            m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m).asType(GETTER);
+        } catch (IllegalAccessException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the method as declared by a public class or interface, or null
+     */
+    private static Method accessible(Class<?> type, Method m) {
+        if (Modifier.isPublic(type.getModifiers())) {
+            try {
+                return type.getMethod(m.getName());
+            } catch (NoSuchMethodException ex) {
+                return null;
+            }
+        }
+
+        for (Class<?> i : type.getInterfaces()) {
+            Method found = accessible(i, m);
+            if (found != null) return found;
+        }
+        return type.getSuperclass() != null ? accessible(type.getSuperclass(), m) : null;
+    }
+
+    /**
+     * @return the accessors of the components of a record, none for other
+     *         classes or before Java 16
+     */
+    static Method[] recordAccessors(Class<?> type) {
+        try {
+            if (!(Boolean) Class.class.getMethod("isRecord").invoke(type)) return new Method[0];
+
+            Object[] components = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+            Method[] accessors = new Method[components.length];
+            for (int i = 0; i < components.length; i++)
+                accessors[i] = (Method) components[i].getClass().getMethod("getAccessor").invoke(components[i]);
+            return accessors;
+        } catch (ReflectiveOperationException ex) {
+            return new Method[0];
+        }
+    }
+
+    static final class Property {
+
+        final String name;
+        final Class<?> type;
+        private final MethodHandle getter;
+
+        Property(String name, Class<?> type, MethodHandle getter) {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+        }
+
+        Object get(Object bean) throws Throwable {
+            return (Object) getter.invokeExact(bean);
+        }
+    }
+}
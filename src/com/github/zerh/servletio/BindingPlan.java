@@ -0,0 +1,74 @@
+package com.github.zerh.servletio;
+
+import java.lang.reflect.Type;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * How to fill the arguments of an action or filter method, worked out once
+ * when the method is mapped: one {@link Resolver} per argument slot.
+ */
+final class BindingPlan {
+
+    interface Resolver {
+        Object resolve(Request request, Response response) throws Exception;
+    }
+
+    private static final Resolver NULL = (request, response) -> null;
+    private static final Resolver REQUEST = (request, response) -> request;
+    private static final Resolver RESPONSE = (request, response) -> response;
+    private static final Resolver RAW_REQUEST = (request, response) -> request.raw;
+    private static final Resolver RAW_RESPONSE = (request, response) -> response.raw;
+
+    private final Resolver[] resolvers;
+
+    private BindingPlan(Resolver[] resolvers) {
+        this.resolvers = resolvers;
+    }
+
+    /**
+     * @param route
+     *            the route the action is mapped to, or null for filters
+     */
+    static BindingPlan of(RouteTable.Action action, Route route) {
+        Resolver[] resolvers = new Resolver[action.types.length];
+
+        for (int i = 0; i < resolvers.length; i++) {
+            Type bodyType = action.bodyTypes != null ? action.bodyTypes[i] : null;
+            resolvers[i] = bodyType != null ? (request, response) -> request.json(bodyType)
+                    : resolver(action.types[i], action.params[i], route);
+        }
+
+        return new BindingPlan(resolvers);
+    }
+
+    private static Resolver resolver(Class<?> type, String name, Route route) {
+
+        if (type.equals(Request.class)) return REQUEST;
+        if (type.equals(Response.class)) return RESPONSE;
+        if (type.equals(HttpServletRequest.class)) return RAW_REQUEST;
+        if (type.equals(HttpServletResponse.class)) return RAW_RESPONSE;
+
+        if (name == null || name.equals("null")) return NULL;
+
+        if (type.isArray()) {
+            Class<?> componentType = type.getComponentType();
+            return (request, response) -> request.parameterValues(name, componentType);
+        }
+
+        if (name.startsWith(":")) {
+            int slot = route != null ? route.slotOf(name) : -1;
+            if (slot >= 0) return (request, response) -> request.pathParam(slot, type);
+        }
+
+        return (request, response) -> request.param(name, type);
+    }
+
+    Object[] bind(Request request, Response response) throws Exception {
+        Object[] args = new Object[resolvers.length];
+        for (int i = 0; i < args.length; i++)
+            args[i] = resolvers[i].resolve(request, response);
+        return args;
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.zerh.servletio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * A satisfiable byte range of a <code>Range</code> request header, with
+ * inclusive bounds.
+ */
+final class ByteRange {
+
+    /**
+     * More ranges than this in one header are ignored and the whole content
+     * is sent.
+     */
+    static final int MAX_RANGES = 16;
+
+    final long start;
+    final long end;
+
+    ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    long length() {
+        return end - start + 1;
+    }
+
+    String contentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+
+    /**
+     * Reads the <code>Range</code> and <code>If-Range</code> headers of a GET
+     * request for content of the given size.
+     *
+     * @param etag
+     *            the strong ETag of the content, or null
+     * @param lastModified
+     *            the modification time of the content, or -1
+     * @return null to send the whole content, an empty list if no range is
+     *         satisfiable (416), otherwise the ranges sorted and coalesced
+     */
+    static List<ByteRange> of(HttpServletRequest request, long size, String etag, long lastModified) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) return null;
+
+        String header = request.getHeader("Range");
+        if (header == null || !ifRange(request, etag, lastModified)) return null;
+
+        return parse(header, size);
+    }
+
+    private static boolean ifRange(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) return true;
+
+        ifRange = ifRange.trim();
+        // a weak tag never validates a range, strong comparison only
+        if (ifRange.startsWith("W/")) return false;
+        if (ifRange.startsWith("\"")) return etag != null && !etag.startsWith("W/") && ifRange.equals(etag);
+
+        if (lastModified < 0) return false;
+        try {
+            return request.getDateHeader("If-Range") / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    static List<ByteRange> parse(String header, long size) {
+        header = header.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) return null;
+
+        List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0) continue;
+                    start = Math.max(0, size - suffix);
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                    if (start < 0 || end < start) return null;
+                    end = Math.min(end, size - 1);
+                }
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+
+            if (start < size) ranges.add(new ByteRange(start, end));
+        }
+
+        return coalesce(ranges);
+    }
+
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) return ranges;
+
+        Collections.sort(ranges, (r1, r2) -> Long.compare(r1.start, r2.start));
+
+        List<ByteRange> merged = new ArrayList<ByteRange>(ranges.size());
+        ByteRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            ByteRange next = ranges.get(i);
+            if (next.start <= current.end + 1) {
+                current = new ByteRange(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+}
@@ -0,0 +1,377 @@
+package com.github.zerh.servletio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Records the status, headers and body rendered by a cached or
+ * {@link com.github.zerh.servletio.annotation.ETag} action.
+ * <p>
+ * A live capture passes status and headers through to the client response
+ * and only holds the body back, which {@link #commit(HttpServletRequest)}
+ * writes once the action is done. A detached capture, used to refresh a
+ * stale entry after the client got its response, wraps a
+ * {@link DetachedResponse} and answers headers from what it recorded.
+ * When hashing, the body is digested as it is written and its ETag is
+ * added to the response.
+ */
+final class CaptureResponse extends HttpServletResponseWrapper {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final boolean live;
+
+    private int status = SC_OK;
+    private String contentType;
+    private String characterEncoding;
+    private boolean cacheable = true;
+
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> values = new ArrayList<String>();
+    private final List<Boolean> added = new ArrayList<Boolean>();
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final MessageDigest digest;
+    private String etag;
+
+    private final Sink sink = new Sink();
+
+    /**
+     * Writes to the body and the digest.
+     */
+    private final class Sink extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            body.write(b);
+            if (digest != null) digest.update((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            body.write(b, off, len);
+            if (digest != null) digest.update(b, off, len);
+        }
+    }
+
+    private ServletOutputStream stream;
+    private PrintWriter writer;
+
+    CaptureResponse(HttpServletResponse response, boolean live, boolean hash) {
+        super(response);
+        this.live = live;
+        this.digest = hash ? ETags.digest() : null;
+    }
+
+    /**
+     * @return the ETag set by the action or, when hashing, the one of the
+     *         body, which is then added to the headers; null otherwise
+     */
+    String etag() {
+        if (writer != null) writer.flush();
+
+        if (etag == null) {
+            etag = header("ETag");
+            if (etag == null && digest != null && status == SC_OK) {
+                etag = ETags.of(digest.digest());
+                setHeader("ETag", etag);
+            }
+        }
+        return etag;
+    }
+
+    private String header(String name) {
+        for (int i = names.size() - 1; i >= 0; i--)
+            if (names.get(i).equalsIgnoreCase(name)) return values.get(i);
+        return null;
+    }
+
+    /**
+     * @return the captured response, or null if it must not be cached
+     */
+    ResponseCache.Entry toEntry(String key, long expires, long staleUntil) {
+        if (digest != null) etag();
+        if (writer != null) writer.flush();
+        if (!cacheable || status != SC_OK) return null;
+
+        int n = names.size();
+        boolean[] addedArray = new boolean[n];
+        for (int i = 0; i < n; i++)
+            addedArray[i] = added.get(i);
+
+        return new ResponseCache.Entry(status, contentType, characterEncoding, names.toArray(new String[n]),
+                values.toArray(new String[n]), addedArray, body.toByteArray(), expires, staleUntil, key);
+    }
+
+    /**
+     * Writes the held back body to the client response, or only a 304 when
+     * hashing and the client copy is current.
+     */
+    void commit(HttpServletRequest request) throws IOException {
+        if (writer != null) writer.flush();
+        if (!live) return;
+
+        if (digest != null && status == SC_OK && ETags.notModified(request, etag(), -1)) {
+            super.setStatus(SC_NOT_MODIFIED);
+            return;
+        }
+
+        if (body.size() == 0) return;
+
+        super.setContentLength(body.size());
+        body.writeTo(super.getOutputStream());
+    }
+
+    private void record(String name, String value, boolean add) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.equals("set-cookie")) cacheable = false;
+        if (lower.equals("content-length")) return;
+
+        if (!add) {
+            for (int i = names.size() - 1; i >= 0; i--) {
+                if (names.get(i).equalsIgnoreCase(name)) {
+                    names.remove(i);
+                    values.remove(i);
+                    added.remove(i);
+                }
+            }
+        }
+        names.add(name);
+        values.add(value);
+        added.add(add);
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        status = sc;
+        if (live) super.setStatus(sc);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+        status = sc;
+        if (live) super.setStatus(sc, sm);
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        status = sc;
+        cacheable = false;
+        if (live) super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        status = sc;
+        cacheable = false;
+        if (live) super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        status = SC_FOUND;
+        cacheable = false;
+        if (live) super.sendRedirect(location);
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        cacheable = false;
+        if (live) super.addCookie(cookie);
+    }
+
+    @Override
+    public void setContentType(String type) {
+        contentType = type;
+        if (live) super.setContentType(type);
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        characterEncoding = charset;
+        if (live) super.setCharacterEncoding(charset);
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return live || characterEncoding == null ? super.getCharacterEncoding() : characterEncoding;
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        return live ? super.containsHeader(name) : header(name) != null;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return live ? super.getHeader(name) : header(name);
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        if (live) return super.getHeaders(name);
+
+        List<String> headers = new ArrayList<String>();
+        for (int i = 0; i < names.size(); i++)
+            if (names.get(i).equalsIgnoreCase(name)) headers.add(values.get(i));
+        return headers;
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        if (live) return super.getHeaderNames();
+
+        Set<String> headerNames = new LinkedHashSet<String>();
+        for (String name : names)
+            headerNames.add(name);
+        return headerNames;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        record(name, value, false);
+        if (live) super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        record(name, value, true);
+        if (live) super.addHeader(name, value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        record(name, String.valueOf(value), false);
+        if (live) super.setIntHeader(name, value);
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        record(name, String.valueOf(value), true);
+        if (live) super.addIntHeader(name, value);
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        record(name, HTTP_DATE.format(Instant.ofEpochMilli(date)), false);
+        if (live) super.setDateHeader(name, date);
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        record(name, HTTP_DATE.format(Instant.ofEpochMilli(date)), true);
+        if (live) super.addDateHeader(name, date);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (writer != null) throw new IllegalStateException("getWriter() has already been called");
+
+        if (stream == null) {
+            stream = new ServletOutputStream() {
+
+                @Override
+                public void write(int b) {
+                    sink.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    sink.write(b, off, len);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                    throw new IllegalStateException("cached actions write synchronously");
+                }
+            };
+        }
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (stream != null) throw new IllegalStateException("getOutputStream() has already been called");
+
+            String charset = getCharacterEncoding();
+            if (characterEncoding == null) characterEncoding = charset;
+            writer = new PrintWriter(new OutputStreamWriter(sink, charset));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() {
+        if (writer != null) writer.flush();
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public void resetBuffer() {
+        body.reset();
+        if (digest != null) digest.reset();
+    }
+
+    @Override
+    public void reset() {
+        if (live) super.reset();
+        body.reset();
+        if (digest != null) digest.reset();
+        etag = null;
+        names.clear();
+        values.clear();
+        added.clear();
+        status = SC_OK;
+        contentType = null;
+        cacheable = true;
+    }
+}
@@ -0,0 +1,455 @@
+package com.github.zerh.servletio;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.BaseStream;
+
+/**
+ * A template of {@link Templates} parsed once into a tree of instructions,
+ * its static text encoded to UTF-8 bytes at parse time. Rendering walks the
+ * tree and streams to a {@link Utf8Output}.
+ * <p>
+ * The tags are:
+ * <ul>
+ * <li><code>{{user.name}}</code> the value, HTML escaped; each segment is a
+ * map key, a getter, a public field or a record component, and a null or
+ * missing value prints nothing</li>
+ * <li><code>{{&amp; html}}</code> the value, not escaped</li>
+ * <li><code>{{#if user.admin}} ... {{#else}} ... {{/if}}</code>, or
+ * <code>{{#if !items}}</code>; null, false, empty strings, collections, maps
+ * and arrays are false</li>
+ * <li><code>{{#each item in items}} ... {{#else}} ... {{/each}}</code>, or
+ * <code>{{#each item, i in items}}</code> with the index from 0, over
+ * iterables, arrays, streams and the entries of maps; the else part renders
+ * when there is nothing to iterate</li>
+ * <li><code>{{&gt; footer}}</code> renders the template named footer with
+ * the same values</li>
+ * <li><code>{{! comment}}</code></li>
+ * </ul>
+ * Block and comment tags alone on their line take the line with them.
+ */
+final class CompiledTemplate {
+
+    static final int MAX_INCLUDE_DEPTH = 32;
+
+    final String name;
+    private final Node[] nodes;
+
+    private CompiledTemplate(String name, Node[] nodes) {
+        this.name = name;
+        this.nodes = nodes;
+    }
+
+    void render(Templates templates, Scope scope, Utf8Output out, int depth) throws IOException {
+        render(nodes, templates, scope, out, depth);
+    }
+
+    private static void render(Node[] nodes, Templates templates, Scope scope, Utf8Output out, int depth) throws IOException {
+        for (Node node : nodes)
+            node.render(templates, scope, out, depth);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             with the name and line of the first syntax error
+     */
+    static CompiledTemplate parse(String name, String source) {
+        return new Parser(name, source).parse();
+    }
+
+    /**
+     * The values visible to a part of a template: the model, then the loop
+     * variables in scope, innermost first.
+     */
+    static final class Scope {
+
+        private final Map<String, ?> model;
+        private final String name;
+        private final Scope parent;
+        private Object value;
+
+        Scope(Map<String, ?> model) {
+            this.model = model;
+            this.name = null;
+            this.parent = null;
+        }
+
+        private Scope(String name, Scope parent) {
+            this.model = null;
+            this.name = name;
+            this.parent = parent;
+        }
+
+        Object lookup(String key) {
+            for (Scope scope = this; scope != null; scope = scope.parent) {
+                if (scope.name == null) return scope.model != null ? scope.model.get(key) : null;
+                if (scope.name.equals(key)) return scope.value;
+            }
+            return null;
+        }
+    }
+
+    private abstract static class Node {
+        abstract void render(Templates templates, Scope scope, Utf8Output out, int depth) throws IOException;
+    }
+
+    private static final class Text extends Node {
+
+        private final byte[] bytes;
+
+        Text(String text) {
+            bytes = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        void render(Templates templates, Scope scope, Utf8Output out, int depth) throws IOException {
+            out.write(bytes);
+        }
+    }
+
+    private static final class Value extends Node {
+
+        private final String[] path;
+        private final boolean escape;
+
+        Value(String[] path, boolean escape) {
+            this.path = path;
+            this.escape = escape;
+        }
+
+        @Override
+        void render(Templates templates, Scope scope, Utf8Output out, int depth) throws IOException {
+            Object value = resolve(path, scope);
+            if (value == null) return;
+
+            out.write(value instanceof CharSequence ? (CharSequence) value : String.valueOf(value),
+                    escape ? Utf8Output.HTML : null);
+        }
+    }
+
+    private static final class If extends Node {
+
+        private final String[] path;
+        private final boolean negate;
+        private final Node[] then;
+        private final Node[] otherwise;
+
+        If(String[] path, boolean negate, Node[] then, Node[] otherwise) {
+            this.path = path;
+            this.negate = negate;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        void render(Templates templates, Scope scope, Utf8Output out, int depth) throws IOException {
+            CompiledTemplate.render(isTrue(resolve(path, scope)) != negate ? then : otherwise, templates, scope, out, depth);
+        }
+    }
+
+    private static final class Each extends Node {
+
+        private final String variable;
+        private final String index;
+        private final String[] path;
+        private final Node[] body;
+        private final Node[] empty;
+
+        Each(String variable, String index, String[] path, Node[] body, Node[] empty) {
+            this.variable = variable;
+            this.index = index;
+            this.path = path;
+            this.body = body;
+            this.empty = empty;
+        }
+
+        @Override
+        void render(Templates templates, Scope scope, Utf8Output out, int depth) throws IOException {
+            Object values = resolve(path, scope);
+
+            Scope indexScope = index != null ? new Scope(index, scope) : null;
+            Scope itemScope = new Scope(variable, indexScope != null ? indexScope : scope);
+            int i = 0;
+
+            if (values != null && values.getClass().isArray()) {
+                int length = Array.getLength(values);
+                for (; i < length; i++)
+                    renderItem(Array.get(values, i), i, itemScope, indexScope, templates, out, depth);
+            } else {
+                Iterator<?> it = values instanceof Iterable ? ((Iterable<?>) values).iterator()
+                        : values instanceof Map ? ((Map<?, ?>) values).entrySet().iterator()
+                        : values instanceof BaseStream ? ((BaseStream<?, ?>) values).iterator()
+                        : values instanceof Iterator ? (Iterator<?>) values
+                        : null;
+                if (it != null) {
+                    for (; it.hasNext(); i++)
+                        renderItem(it.next(), i, itemScope, indexScope, templates, out, depth);
+                }
+            }
+
+            if (i == 0) CompiledTemplate.render(empty, templates, scope, out, depth);
+        }
+
+        private void renderItem(Object item, int i, Scope itemScope, Scope indexScope, Templates templates, Utf8Output out,
+                int depth) throws IOException {
+            itemScope.value = item;
+            if (indexScope != null) indexScope.value = i;
+            CompiledTemplate.render(body, templates, itemScope, out, depth);
+        }
+    }
+
+    private static final class Include extends Node {
+
+        private final String template;
+        private final String from;
+
+        Include(String template, String from) {
+            this.template = template;
+            this.from = from;
+        }
+
+        @Override
+        void render(Templates templates, Scope scope, Utf8Output out, int depth) throws IOException {
+            if (depth >= MAX_INCLUDE_DEPTH)
+                throw new IllegalStateException("includes of " + from + " nested deeper than " + MAX_INCLUDE_DEPTH);
+
+            templates.template(template).render(templates, scope, out, depth + 1);
+        }
+    }
+
+    private static Object resolve(String[] path, Scope scope) {
+        Object value = scope.lookup(path[0]);
+        for (int i = 1; i < path.length && value != null; i++)
+            value = property(value, path[i]);
+        return value;
+    }
+
+    private static Object property(Object bean, String name) {
+        if (bean instanceof Map) return ((Map<?, ?>) bean).get(name);
+
+        BeanReader.Property property = BeanReader.of(bean.getClass()).property(name);
+        if (property == null) return null;
+
+        try {
+            return property.get(bean);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("cannot read " + name + " of " + bean.getClass().getName(), e);
+        }
+    }
+
+    private static boolean isTrue(Object value) {
+        if (value == null) return false;
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof CharSequence) return ((CharSequence) value).length() > 0;
+        if (value instanceof Collection) return !((Collection<?>) value).isEmpty();
+        if (value instanceof Map) return !((Map<?, ?>) value).isEmpty();
+        if (value.getClass().isArray()) return Array.getLength(value) > 0;
+        return true;
+    }
+
+    private static final class Parser {
+
+        private final String name;
+        private final String source;
+        private int pos;
+
+        /**
+         * Open blocks, innermost last.
+         */
+        private final List<Block> blocks = new ArrayList<Block>();
+
+        Parser(String name, String source) {
+            this.name = name;
+            this.source = source;
+        }
+
+        CompiledTemplate parse() {
+            Block root = new Block(null, 0);
+            blocks.add(root);
+
+            while (pos < source.length()) {
+                int open = source.indexOf("{{", pos);
+                if (open < 0) {
+                    text(source.substring(pos));
+                    break;
+                }
+
+                int close = source.indexOf("}}", open + 2);
+                if (close < 0) throw error(open, "unclosed tag");
+
+                String tag = source.substring(open + 2, close).trim();
+                if (tag.isEmpty()) throw error(open, "empty tag");
+
+                int end = close + 2;
+                char kind = tag.charAt(0);
+                boolean block = kind == '#' || kind == '/' || kind == '!';
+
+                int lineStart = source.lastIndexOf('\n', open - 1) + 1;
+                int lineEnd = source.indexOf('\n', end);
+                if (lineEnd < 0) lineEnd = source.length();
+
+                if (block && lineStart >= pos && isBlank(lineStart, open) && isBlank(end, lineEnd)) {
+                    text(source.substring(pos, lineStart));
+                    pos = Math.min(lineEnd + 1, source.length());
+                } else {
+                    text(source.substring(pos, open));
+                    pos = end;
+                }
+
+                tag(tag, open);
+            }
+
+            if (blocks.size() > 1) {
+                Block unclosed = blocks.get(blocks.size() - 1);
+                throw error(unclosed.offset, "unclosed {{#" + unclosed.kind + "}}");
+            }
+            return new CompiledTemplate(name, root.then());
+        }
+
+        private boolean isBlank(int from, int to) {
+            for (int i = from; i < to; i++) {
+                char c = source.charAt(i);
+                if (c != ' ' && c != '\t' && c != '\r') return false;
+            }
+            return true;
+        }
+
+        private void text(String text) {
+            if (!text.isEmpty()) current().add(new Text(text));
+        }
+
+        private Block current() {
+            return blocks.get(blocks.size() - 1);
+        }
+
+        private void tag(String tag, int offset) {
+            char kind = tag.charAt(0);
+            String body = tag.substring(1).trim();
+
+            switch (kind) {
+            case '!':
+                return;
+            case '&':
+                current().add(new Value(path(body, offset), false));
+                return;
+            case '>':
+                if (body.isEmpty()) throw error(offset, "include without a template name");
+                current().add(new Include(body, name));
+                return;
+            case '/':
+                close(body, offset);
+                return;
+            case '#':
+                open(body, offset);
+                return;
+            default:
+                current().add(new Value(path(tag, offset), true));
+            }
+        }
+
+        private void open(String tag, int offset) {
+            int space = tag.indexOf(' ');
+            String keyword = space < 0 ? tag : tag.substring(0, space);
+            String rest = space < 0 ? "" : tag.substring(space + 1).trim();
+
+            if (keyword.equals("else")) {
+                Block block = current();
+                if (block.kind == null) throw error(offset, "{{#else}} outside of a block");
+                if (block.otherwise != null) throw error(offset, "second {{#else}} in a block");
+                block.otherwise = new ArrayList<Node>();
+                return;
+            }
+
+            Block block = new Block(keyword, offset);
+            if (keyword.equals("if")) {
+                boolean negate = rest.startsWith("!");
+                block.path = path(negate ? rest.substring(1).trim() : rest, offset);
+                block.negate = negate;
+            } else if (keyword.equals("each")) {
+                int in = rest.indexOf(" in ");
+                if (in < 0) throw error(offset, "{{#each}} needs the form {{#each item in items}}");
+
+                String[] variables = rest.substring(0, in).split(",");
+                if (variables.length > 2) throw error(offset, "{{#each}} takes an item and an index variable");
+                block.variable = identifier(variables[0].trim(), offset);
+                block.index = variables.length == 2 ? identifier(variables[1].trim(), offset) : null;
+                block.path = path(rest.substring(in + 4).trim(), offset);
+            } else {
+                throw error(offset, "unknown block {{#" + keyword + "}}");
+            }
+            blocks.add(block);
+        }
+
+        private void close(String keyword, int offset) {
+            Block block = current();
+            if (block.kind == null) throw error(offset, "{{/" + keyword + "}} without a block to close");
+            if (!block.kind.equals(keyword))
+                throw error(offset, "{{/" + keyword + "}} closes {{#" + block.kind + "}}");
+
+            blocks.remove(blocks.size() - 1);
+            Node[] otherwise = block.otherwise != null ? block.otherwise.toArray(new Node[block.otherwise.size()]) : new Node[0];
+            current().add(block.kind.equals("if") ? new If(block.path, block.negate, block.then(), otherwise)
+                    : new Each(block.variable, block.index, block.path, block.then(), otherwise));
+        }
+
+        private String[] path(String expression, int offset) {
+            if (expression.isEmpty()) throw error(offset, "missing value name");
+
+            String[] path = expression.split("\\.", -1);
+            for (String segment : path)
+                identifier(segment, offset);
+            return path;
+        }
+
+        private String identifier(String identifier, int offset) {
+            if (identifier.isEmpty() || !Character.isJavaIdentifierStart(identifier.charAt(0)))
+                throw error(offset, "invalid name '" + identifier + "'");
+            for (int i = 1; i < identifier.length(); i++)
+                if (!Character.isJavaIdentifierPart(identifier.charAt(i)))
+                    throw error(offset, "invalid name '" + identifier + "'");
+            return identifier;
+        }
+
+        private IllegalArgumentException error(int offset, String message) {
+            int line = 1;
+            for (int i = 0; i < offset; i++)
+                if (source.charAt(i) == '\n') line++;
+            return new IllegalArgumentException(name + ":" + line + ": " + message);
+        }
+    }
+
+    private static final class Block {
+
+        final String kind;
+        final int offset;
+
+        String[] path;
+        boolean negate;
+        String variable;
+        String index;
+
+        private final List<Node> then = new ArrayList<Node>();
+        List<Node> otherwise;
+
+        Block(String kind, int offset) {
+            this.kind = kind;
+            this.offset = offset;
+        }
+
+        void add(Node node) {
+            (otherwise != null ? otherwise : then).add(node);
+        }
+
+        Node[] then() {
+            return then.toArray(new Node[then.size()]);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.github.zerh.servletio;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Compresses the response with gzip or deflate, as accepted by the client.
+ * <p>
+ * Output is buffered until it reaches the threshold: smaller bodies are
+ * sent as they are, with their Content-Length. Larger ones are compressed if
+ * their content type is not already compressed and no Content-Encoding was
+ * set. {@link Deflater}s are pooled per level.
+ */
+final class CompressionResponse extends HttpServletResponseWrapper {
+
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+
+    private static final int UNDECIDED = 0;
+    private static final int PLAIN = 1;
+    private static final int COMPRESSED = 2;
+
+    /**
+     * Pooled deflaters, at <code>level * 2</code> for deflate and
+     * <code>level * 2 + 1</code> for gzip.
+     */
+    private static final List<Queue<Deflater>> DEFLATERS = new ArrayList<Queue<Deflater>>();
+
+    static {
+        for (int i = 0; i < (Deflater.BEST_COMPRESSION + 1) * 2; i++)
+            DEFLATERS.add(new ConcurrentLinkedQueue<Deflater>());
+    }
+
+    private final String encoding;
+    private final int threshold;
+    private final int level;
+
+    private int state = UNDECIDED;
+    private long contentLength = -1;
+    private String contentEncoding;
+
+    private CompressionStream stream;
+    private PrintWriter writer;
+
+    /**
+     * @return the wrapped response, or the response itself if the client
+     *         accepts neither gzip nor deflate
+     */
+    static HttpServletResponse wrap(HttpServletRequest request, HttpServletResponse response, int threshold,
+            int level) {
+
+        if (level <= 0 || "HEAD".equals(request.getMethod())) return response;
+
+        String encoding = acceptedEncoding(request.getHeader("Accept-Encoding"));
+        if (encoding == null) return response;
+
+        return new CompressionResponse(response, encoding, threshold, Math.min(level, Deflater.BEST_COMPRESSION));
+    }
+
+    private CompressionResponse(HttpServletResponse response, String encoding, int threshold, int level) {
+        super(response);
+        this.encoding = encoding;
+        this.threshold = threshold;
+        this.level = level;
+    }
+
+    /**
+     * @return gzip or deflate, preferring gzip, or null if neither is
+     *         accepted
+     */
+    static String acceptedEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) return null;
+
+        boolean deflate = false;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+
+            if (parts.length > 1 && isZeroQuality(parts[1])) continue;
+
+            if (coding.equals(GZIP) || coding.equals("x-gzip") || coding.equals("*")) return GZIP;
+            if (coding.equals(DEFLATE)) deflate = true;
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    private static boolean isZeroQuality(String param) {
+        param = param.trim();
+        if (!param.startsWith("q=")) return false;
+        try {
+            return Double.parseDouble(param.substring(2)) == 0;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) return false;
+
+        String type = contentType.toLowerCase(Locale.ROOT);
+        if (type.startsWith("text/")) return true;
+        if (type.startsWith("image/")) return type.startsWith("image/svg");
+        if (type.startsWith("video/") || type.startsWith("audio/") || type.startsWith("multipart/")) return false;
+
+        return type.contains("json") || type.contains("xml") || type.contains("javascript")
+                || type.startsWith("application/x-www-form-urlencoded") || type.startsWith("font/ttf")
+                || type.startsWith("font/otf");
+    }
+
+    private boolean shouldCompress() {
+        int status = getStatus();
+        return contentEncoding == null && status >= 200 && status != SC_NO_CONTENT && status != SC_NOT_MODIFIED
+                && status != SC_PARTIAL_CONTENT && getHeader("Content-Range") == null
+                && isCompressible(getContentType());
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        setContentLengthLong(len);
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        if (state == COMPRESSED) return;
+
+        contentLength = len;
+        if (state == PLAIN) super.setContentLengthLong(len);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (!intercept(name, value)) super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (!intercept(name, value)) super.addHeader(name, value);
+    }
+
+    private boolean intercept(String name, String value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            try {
+                setContentLengthLong(Long.parseLong(value.trim()));
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+            return true;
+        }
+        if ("Content-Encoding".equalsIgnoreCase(name)) contentEncoding = value;
+        if ("ETag".equalsIgnoreCase(name) && state == COMPRESSED && value != null) {
+            super.setHeader(name, weak(value));
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * The compressed body is another representation than the one a strong
+     * ETag was computed for, so it gets a weak tag: If-None-Match still
+     * matches it, while If-Range and byte ranges no longer take it for the
+     * uncompressed bytes.
+     */
+    private static String weak(String etag) {
+        return etag.startsWith("\"") ? "W/" + etag : etag;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) throw new IllegalStateException("getWriter() has already been called");
+
+        if (stream == null) stream = new CompressionStream();
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (stream != null) throw new IllegalStateException("getOutputStream() has already been called");
+
+            stream = new CompressionStream();
+            writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) writer.flush();
+        if (stream != null) {
+            stream.decide();
+            stream.flush();
+        }
+        super.flushBuffer();
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        if (stream != null && state == UNDECIDED) stream.count = 0;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        if (stream != null && state == UNDECIDED) stream.count = 0;
+        contentLength = -1;
+        contentEncoding = null;
+    }
+
+    /**
+     * Writes what is still buffered and ends the compressed stream. Called
+     * when the request is done; closing the stream or writer does the same.
+     */
+    void finish() throws IOException {
+        if (writer != null) writer.flush();
+        if (stream != null) stream.finish();
+    }
+
+    private final class CompressionStream extends ServletOutputStream {
+
+        private byte[] buffer = new byte[Math.max(threshold, 1)];
+        private int count;
+
+        private ServletOutputStream out;
+        private Deflater deflater;
+        private CRC32 crc;
+        private final byte[] deflated = new byte[8192];
+        private boolean finished;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (finished) throw new IOException("stream closed");
+
+            if (state == UNDECIDED) {
+                if (contentLength >= 0 && contentLength < threshold) {
+                    plain();
+                } else if (contentLength >= threshold || count + len > buffer.length) {
+                    decide();
+                } else {
+                    System.arraycopy(b, off, buffer, count, len);
+                    count += len;
+                    return;
+                }
+            }
+
+            if (state == PLAIN) {
+                out.write(b, off, len);
+            } else {
+                deflate(b, off, len);
+            }
+        }
+
+        /**
+         * Picks plain or compressed output for the data written so far.
+         */
+        void decide() throws IOException {
+            if (state != UNDECIDED) return;
+
+            if (shouldCompress()) compressed();
+            else plain();
+        }
+
+        private void plain() throws IOException {
+            state = PLAIN;
+            if (contentLength >= 0) CompressionResponse.super.setContentLengthLong(contentLength);
+
+            if (isCompressible(getContentType())) CompressionResponse.super.addHeader("Vary", "Accept-Encoding");
+
+            out = CompressionResponse.super.getOutputStream();
+            if (count > 0) out.write(buffer, 0, count);
+            buffer = null;
+        }
+
+        private void compressed() throws IOException {
+            state = COMPRESSED;
+            CompressionResponse.super.setHeader("Content-Encoding", encoding);
+            CompressionResponse.super.addHeader("Vary", "Accept-Encoding");
+
+            String etag = getHeader("ETag");
+            if (etag != null) CompressionResponse.super.setHeader("ETag", weak(etag));
+
+            boolean gzip = encoding.equals(GZIP);
+            deflater = acquire(level, gzip);
+            out = CompressionResponse.super.getOutputStream();
+
+            if (gzip) {
+                crc = new CRC32();
+                out.write(new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff });
+            }
+
+            if (count > 0) deflate(buffer, 0, count);
+            buffer = null;
+        }
+
+        private void deflate(byte[] b, int off, int len) throws IOException {
+            if (crc != null) crc.update(b, off, len);
+
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                int n = deflater.deflate(deflated, 0, deflated.length, Deflater.NO_FLUSH);
+                if (n > 0) out.write(deflated, 0, n);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (state == PLAIN) {
+                out.flush();
+            } else if (state == COMPRESSED && !finished) {
+                int n;
+                while ((n = deflater.deflate(deflated, 0, deflated.length, Deflater.SYNC_FLUSH)) > 0)
+                    out.write(deflated, 0, n);
+                out.flush();
+            }
+        }
+
+        void finish() throws IOException {
+            if (finished) return;
+
+            if (state == UNDECIDED) {
+                if (contentLength < 0) contentLength = count;
+                if (count < threshold) plain();
+                else decide();
+            }
+
+            finished = true;
+
+            if (state == COMPRESSED) {
+                try {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(deflated, 0, deflated.length, Deflater.NO_FLUSH);
+                        if (n > 0) out.write(deflated, 0, n);
+                    }
+
+                    if (crc != null) {
+                        writeInt((int) crc.getValue());
+                        writeInt((int) deflater.getBytesRead());
+                    }
+                } finally {
+                    release(deflater, level, crc != null);
+                    deflater = null;
+                }
+            }
+        }
+
+        private void writeInt(int i) throws IOException {
+            out.write(i & 0xff);
+            out.write((i >> 8) & 0xff);
+            out.write((i >> 16) & 0xff);
+            out.write((i >> 24) & 0xff);
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            if (out != null) out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out == null || out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            try {
+                decide();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            out.setWriteListener(writeListener);
+        }
+    }
+
+    private static Deflater acquire(int level, boolean gzip) {
+        Deflater deflater = DEFLATERS.get(level * 2 + (gzip ? 1 : 0)).poll();
+        return deflater != null ? deflater : new Deflater(level, gzip);
+    }
+
+    private static void release(Deflater deflater, int level, boolean gzip) {
+        deflater.reset();
+        Queue<Deflater> pool = DEFLATERS.get(level * 2 + (gzip ? 1 : 0));
+        if (pool.size() < 64) pool.offer(deflater);
+        else deflater.end();
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.zerh.servletio;
+
+/**
+ * Thrown when a request value cannot be converted to the type it is bound
+ * to, <code>?page=abc</code> for an <code>int</code> for instance. An action
+ * failing with it gets a 400 response.
+ */
+public class ConversionException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final String value;
+    public final Class<?> type;
+
+    public ConversionException(String value, Class<?> type, Throwable cause) {
+        super("cannot convert \"" + value + "\" to " + type.getName(), cause);
+        this.value = value;
+        this.type = type;
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.zerh.servletio;
+
+/**
+ * Converts a request value (query, form or path param) to a type. Register
+ * custom converters with {@link Converters#register(Class, Converter)}.
+ *
+ * @param <T>
+ *            the target type
+ */
+@FunctionalInterface
+public interface Converter<T> {
+
+    /**
+     * @param value
+     *            the raw value, never null
+     * @return the converted value
+     * @throws IllegalArgumentException
+     *             if the value cannot be converted
+     */
+    T convert(String value);
+}
@@ -0,0 +1,276 @@
+package com.github.zerh.servletio;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the {@link Converter}s used to bind request values, keyed by
+ * target type.
+ * <p>
+ * Primitives, their wrappers, <code>String</code>, <code>BigDecimal</code>,
+ * <code>BigInteger</code>, <code>UUID</code>, enums and the
+ * <code>java.time</code> types are built in. Other types are converted with
+ * their <code>String</code> constructor or their static
+ * <code>valueOf(String)</code> method, looked up once and cached.
+ */
+public final class Converters {
+
+    private static final ConcurrentMap<Class<?>, Converter<?>> CONVERTERS = new ConcurrentHashMap<>();
+
+    static {
+        register(String.class, value -> value);
+        register(CharSequence.class, value -> value);
+        register(Object.class, value -> value);
+
+        register(int.class, new IntConverter());
+        register(Integer.class, new IntConverter());
+        register(long.class, new LongConverter());
+        register(Long.class, new LongConverter());
+        register(double.class, new DoubleConverter());
+        register(Double.class, new DoubleConverter());
+        register(boolean.class, new BooleanConverter());
+        register(Boolean.class, new BooleanConverter());
+        // an empty value is taken for a missing one, null being converted to
+        // the zero value of primitives
+        register(float.class, value -> isBlank(value) ? null : Float.valueOf(value.trim()));
+        register(Float.class, value -> isBlank(value) ? null : Float.valueOf(value.trim()));
+        register(short.class, value -> isBlank(value) ? null : Short.valueOf(value.trim()));
+        register(Short.class, value -> isBlank(value) ? null : Short.valueOf(value.trim()));
+        register(byte.class, value -> isBlank(value) ? null : Byte.valueOf(value.trim()));
+        register(Byte.class, value -> isBlank(value) ? null : Byte.valueOf(value.trim()));
+        register(char.class, value -> value.isEmpty() ? null : value.charAt(0));
+        register(Character.class, value -> value.isEmpty() ? null : value.charAt(0));
+
+        register(BigDecimal.class, value -> isBlank(value) ? null : new BigDecimal(value.trim()));
+        register(BigInteger.class, value -> isBlank(value) ? null : new BigInteger(value.trim()));
+        register(UUID.class, UUID::fromString);
+
+        register(LocalDate.class, LocalDate::parse);
+        register(LocalDateTime.class, LocalDateTime::parse);
+        register(LocalTime.class, LocalTime::parse);
+        register(Instant.class, Instant::parse);
+        register(OffsetDateTime.class, OffsetDateTime::parse);
+        register(ZonedDateTime.class, ZonedDateTime::parse);
+        register(Duration.class, Duration::parse);
+    }
+
+    private Converters() {
+    }
+
+    /**
+     * Registers a converter, replacing the one used for the type.
+     */
+    public static <T> void register(Class<T> type, Converter<? extends T> converter) {
+        CONVERTERS.put(type, converter);
+    }
+
+    /**
+     * @return the converter of the type
+     * @throws IllegalArgumentException
+     *             if the type has no converter and no
+     *             <code>String</code> constructor or <code>valueOf</code>
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Converter<T> of(Class<T> type) {
+        Converter<?> converter = CONVERTERS.get(type);
+        if (converter == null) converter = CONVERTERS.computeIfAbsent(type, Converters::create);
+
+        return (Converter<T>) converter;
+    }
+
+    /**
+     * @return the converted value, null for a null or empty numeric value, or
+     *         the zero value instead if the type is primitive
+     * @throws ConversionException
+     *             if the converter rejects the value
+     */
+    public static <T> T convert(String value, Class<T> type) {
+        if (value == null) return zero(type);
+
+        Converter<T> converter = of(type);
+        T converted;
+        try {
+            converted = converter.convert(value);
+        } catch (ConversionException ex) {
+            throw ex;
+        } catch (RuntimeException ex) {
+            throw new ConversionException(value, type, ex);
+        }
+        return converted == null ? zero(type) : converted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T zero(Class<T> type) {
+        return type.isPrimitive() ? (T) Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+
+    private static boolean isBlank(String value) {
+        for (int i = 0; i < value.length(); i++)
+            if (value.charAt(i) > ' ') return false;
+        return true;
+    }
+
+    /**
+     * Converts every value into an array of the component type. Arrays of
+     * <code>int</code>, <code>long</code>, <code>double</code> and
+     * <code>boolean</code> are filled without boxing.
+     *
+     * @return an array of the component type, or null for null values
+     * @throws ConversionException
+     *             if the converter rejects one of the values
+     */
+    public static Object convert(String[] values, Class<?> componentType) {
+        if (values == null) return null;
+
+        Converter<?> converter = of(componentType);
+        int length = values.length;
+        int i = 0;
+
+        try {
+            if (componentType == int.class && converter instanceof IntConverter) {
+                int[] array = new int[length];
+                for (i = 0; i < length; i++)
+                    array[i] = values[i] == null ? 0 : IntConverter.parse(values[i]);
+                return array;
+            }
+
+            if (componentType == long.class && converter instanceof LongConverter) {
+                long[] array = new long[length];
+                for (i = 0; i < length; i++)
+                    array[i] = values[i] == null ? 0L : LongConverter.parse(values[i]);
+                return array;
+            }
+
+            if (componentType == double.class && converter instanceof DoubleConverter) {
+                double[] array = new double[length];
+                for (i = 0; i < length; i++)
+                    array[i] = values[i] == null ? 0D : DoubleConverter.parse(values[i]);
+                return array;
+            }
+        } catch (RuntimeException ex) {
+            throw new ConversionException(values[i], componentType, ex);
+        }
+
+        if (componentType == boolean.class && converter instanceof BooleanConverter) {
+            boolean[] array = new boolean[length];
+            for (i = 0; i < length; i++)
+                array[i] = values[i] != null && BooleanConverter.parse(values[i]);
+            return array;
+        }
+
+        Object array = Array.newInstance(componentType, length);
+        for (i = 0; i < length; i++)
+            Array.set(array, i, convert(values[i], componentType));
+        return array;
+    }
+
+    private static Converter<?> create(Class<?> type) {
+        if (type.isEnum()) return enumConverter(type);
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+        try {
+            return handleConverter(lookup.findConstructor(type, MethodType.methodType(void.class, String.class)));
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            // try valueOf
+        }
+
+        try {
+            MethodHandle valueOf = lookup.findStatic(type, "valueOf", MethodType.methodType(type, String.class));
+            return handleConverter(valueOf);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new IllegalArgumentException("no converter registered for " + type.getName());
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Converter<?> enumConverter(Class<?> type) {
+        Class<? extends Enum> enumType = (Class<? extends Enum>) type;
+        return value -> Enum.valueOf(enumType, value);
+    }
+
+    private static Converter<?> handleConverter(MethodHandle handle) {
+        MethodHandle generic = handle.asType(MethodType.methodType(Object.class, String.class));
+
+        return value -> {
+            try {
+                return (Object) generic.invokeExact(value);
+            } catch (RuntimeException | Error ex) {
+                throw ex;
+            } catch (Throwable t) {
+                throw new IllegalArgumentException(t);
+            }
+        };
+    }
+
+    private static final class IntConverter implements Converter<Integer> {
+
+        /**
+         * @return the parsed value, 0 for an empty one
+         */
+        static int parse(String value) {
+            return isBlank(value) ? 0 : Integer.parseInt(value.trim());
+        }
+
+        @Override
+        public Integer convert(String value) {
+            return isBlank(value) ? null : Integer.parseInt(value.trim());
+        }
+    }
+
+    private static final class LongConverter implements Converter<Long> {
+
+        /**
+         * @return the parsed value, 0 for an empty one
+         */
+        static long parse(String value) {
+            return isBlank(value) ? 0L : Long.parseLong(value.trim());
+        }
+
+        @Override
+        public Long convert(String value) {
+            return isBlank(value) ? null : Long.parseLong(value.trim());
+        }
+    }
+
+    private static final class DoubleConverter implements Converter<Double> {
+
+        /**
+         * @return the parsed value, 0 for an empty one
+         */
+        static double parse(String value) {
+            return isBlank(value) ? 0D : Double.parseDouble(value.trim());
+        }
+
+        @Override
+        public Double convert(String value) {
+            return isBlank(value) ? null : Double.parseDouble(value.trim());
+        }
+    }
+
+    private static final class BooleanConverter implements Converter<Boolean> {
+
+        static boolean parse(String value) {
+            return "true".equalsIgnoreCase(value) || "on".equalsIgnoreCase(value) || "1".equals(value);
+        }
+
+        @Override
+        public Boolean convert(String value) {
+            return parse(value);
+        }
+    }
+}
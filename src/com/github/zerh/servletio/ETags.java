@@ -0,0 +1,99 @@
+package com.github.zerh.servletio;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Entity tags and the conditional GET checks of
+ * <code>If-None-Match</code> and <code>If-Modified-Since</code>.
+ */
+final class ETags {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ETags() {
+    }
+
+    /**
+     * @return the tag quoted as a strong ETag, or as it is if already quoted
+     */
+    static String quote(String tag) {
+        if (tag.startsWith("\"") || tag.startsWith("W/\"")) return tag;
+        return '"' + tag + '"';
+    }
+
+    /**
+     * @return a strong ETag from the size and modification time of a file
+     */
+    static String of(long size, long lastModified) {
+        return '"' + Long.toHexString(size) + '-' + Long.toHexString(lastModified) + '"';
+    }
+
+    /**
+     * @return a strong ETag from a digest of the content
+     */
+    static String of(byte[] digest) {
+        char[] chars = new char[digest.length * 2 + 2];
+        chars[0] = '"';
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2 + 1] = HEX[(digest[i] >> 4) & 0xf];
+            chars[i * 2 + 2] = HEX[digest[i] & 0xf];
+        }
+        chars[chars.length - 1] = '"';
+        return new String(chars);
+    }
+
+    static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Evaluates the conditional headers of a GET or HEAD request. An
+     * <code>If-None-Match</code> header takes precedence over
+     * <code>If-Modified-Since</code>.
+     *
+     * @param etag
+     *            the current ETag, or null
+     * @param lastModified
+     *            the modification time, or -1
+     * @return true if the client copy is current and a 304 can be sent
+     */
+    static boolean notModified(HttpServletRequest request, String etag, long lastModified) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) return false;
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) return etag != null && matches(ifNoneMatch, etag);
+
+        if (lastModified < 0 || request.getHeader("If-Modified-Since") == null) return false;
+        try {
+            long since = request.getDateHeader("If-Modified-Since");
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Weak comparison of an <code>If-None-Match</code> list with an ETag.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        String opaque = opaque(etag);
+
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || opaque(candidate).equals(opaque)) return true;
+        }
+        return false;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -0,0 +1,168 @@
+package com.github.zerh.servletio;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.zerh.servletio.annotation.After;
+import com.github.zerh.servletio.annotation.Before;
+import com.github.zerh.servletio.utils.RouteUtils;
+
+/**
+ * A {@link Before} or {@link After} method with its <code>only</code> and
+ * <code>unless</code> routes compiled once at init.
+ */
+final class Filter {
+
+    static final int NEVER = 0;
+    static final int ALWAYS = 1;
+    static final int CHECK = 2;
+
+    final Invoker invoker;
+    final BindingPlan plan;
+    final int priority;
+
+    private final Pattern[] only;
+    private final Pattern[] unless;
+
+    Filter(RouteTable.Action action, Before before) {
+        this(action, before.priority(), before.only(), before.unless());
+    }
+
+    Filter(RouteTable.Action action, After after) {
+        this(action, after.priority(), after.only(), after.unless());
+    }
+
+    Filter(RouteTable.Action action, int priority, String[] only, String[] unless) {
+        this.invoker = action.invoker;
+        this.plan = BindingPlan.of(action, null);
+        this.priority = priority;
+        this.only = compile(only);
+        this.unless = compile(unless);
+    }
+
+    private static Pattern[] compile(String[] routes) {
+        Pattern[] patterns = new Pattern[routes.length];
+        for (int i = 0; i < routes.length; i++)
+            patterns[i] = new Pattern(routes[i]);
+        return patterns;
+    }
+
+    boolean isConditional() {
+        return only.length > 0 || unless.length > 0;
+    }
+
+    /**
+     * Decides at init whether this filter intercepts requests mapped to the
+     * route.
+     *
+     * @return {@link #NEVER}, {@link #ALWAYS} or {@link #CHECK} when it
+     *         depends on the value of a <code>:param</code> segment of the
+     *         request
+     */
+    int appliesTo(Route route) {
+        if (only.length > 0) {
+            for (Pattern pattern : only) {
+                int decision = pattern.matches(route);
+                if (decision != NEVER) return decision;
+            }
+            return NEVER;
+        }
+
+        int decision = ALWAYS;
+        for (Pattern pattern : unless) {
+            int match = pattern.matches(route);
+            if (match == ALWAYS) return NEVER;
+            if (match == CHECK) decision = CHECK;
+        }
+        return decision;
+    }
+
+    /**
+     * @return the param indexes of the <code>only</code> route that selects
+     *         the route, or null
+     */
+    Map<String, Integer> indexByTag(Route route) {
+        for (Pattern pattern : only) {
+            int decision = pattern.matches(route);
+            if (decision == ALWAYS) return pattern.indexByTag;
+            if (decision == CHECK) return null;
+        }
+        return null;
+    }
+
+    /**
+     * Runtime check, for routes where {@link #appliesTo(Route)} could not
+     * decide and for unmapped requests.
+     */
+    boolean appliesTo(String route, String[] segments) {
+        if (only.length > 0) return matching(route, segments) != null;
+
+        for (Pattern pattern : unless)
+            if (pattern.matches(route, segments)) return false;
+
+        return true;
+    }
+
+    Map<String, Integer> indexByTag(String route, String[] segments) {
+        Pattern pattern = matching(route, segments);
+        return pattern != null ? pattern.indexByTag : null;
+    }
+
+    private Pattern matching(String route, String[] segments) {
+        for (Pattern pattern : only)
+            if (pattern.matches(route, segments)) return pattern;
+
+        return null;
+    }
+
+    private static final class Pattern {
+
+        final String route;
+        final String[] segments;
+        final boolean[] params;
+        final Map<String, Integer> indexByTag;
+
+        Pattern(String route) {
+            this.route = route;
+            segments = RouteUtils.allSegments(route);
+            params = new boolean[segments.length];
+
+            Map<String, Integer> tags = new HashMap<String, Integer>();
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i].startsWith(":")) {
+                    tags.put(segments[i], i + 1);
+                    params[i] = true;
+                }
+            }
+            indexByTag = Collections.unmodifiableMap(tags);
+        }
+
+        int matches(Route mapped) {
+            if (route.equals(mapped.template)) return ALWAYS;
+
+            String[] mappedSegments = RouteUtils.allSegments(mapped.template);
+            if (mappedSegments.length != segments.length) return NEVER;
+
+            int decision = ALWAYS;
+            for (int i = 0; i < segments.length; i++) {
+                if (params[i]) continue;
+
+                if (mappedSegments[i].startsWith(":")) decision = CHECK;
+                else if (!segments[i].equals(mappedSegments[i])) return NEVER;
+            }
+            return decision;
+        }
+
+        boolean matches(String requestRoute, String[] requestSegments) {
+            if (route.equals(requestRoute)) return true;
+
+            if (requestSegments.length != segments.length) return false;
+
+            for (int i = 0; i < segments.length; i++)
+                if (!params[i] && !segments[i].equals(requestSegments[i])) return false;
+
+            return true;
+        }
+    }
+}
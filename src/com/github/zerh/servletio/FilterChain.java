@@ -0,0 +1,69 @@
+package com.github.zerh.servletio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ordered {@link Filter}s that intercept one route, worked out at init
+ * so dispatch is a plain array walk. Filters that depend on the value of a
+ * <code>:param</code> segment keep a runtime check.
+ */
+final class FilterChain {
+
+    static final FilterChain EMPTY = new FilterChain(new Link[0]);
+
+    final Link[] links;
+
+    private FilterChain(Link[] links) {
+        this.links = links;
+    }
+
+    /**
+     * @return the chain of the filters that may intercept the route
+     */
+    static FilterChain of(List<Filter> filters, Route route) {
+        List<Link> links = new ArrayList<Link>();
+        for (Filter filter : filters) {
+            int decision = filter.appliesTo(route);
+            if (decision == Filter.ALWAYS) {
+                links.add(new Link(filter, false, filter.indexByTag(route)));
+            } else if (decision == Filter.CHECK) {
+                links.add(new Link(filter, true, null));
+            }
+        }
+        return of(links);
+    }
+
+    /**
+     * @return the chain used for requests that match no route: filters
+     *         without <code>only</code> or <code>unless</code> are called
+     *         directly, the others are checked against the request route
+     */
+    static FilterChain unmapped(List<Filter> filters) {
+        List<Link> links = new ArrayList<Link>();
+        for (Filter filter : filters)
+            links.add(new Link(filter, filter.isConditional(), null));
+
+        return of(links);
+    }
+
+    private static FilterChain of(List<Link> links) {
+        if (links.isEmpty()) return EMPTY;
+
+        return new FilterChain(links.toArray(new Link[links.size()]));
+    }
+
+    static final class Link {
+
+        final Filter filter;
+        final boolean check;
+        final Map<String, Integer> indexByTag;
+
+        Link(Filter filter, boolean check, Map<String, Integer> indexByTag) {
+            this.filter = filter;
+            this.check = check;
+            this.indexByTag = indexByTag;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.zerh.servletio;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Calls an action or filter method of a servlet. Invokers are created once
+ * at init; exceptions thrown by the method are rethrown as they are, not
+ * wrapped in an <code>InvocationTargetException</code>.
+ */
+interface Invoker {
+
+    Object invoke(Object[] args) throws Exception;
+
+    /**
+     * @return a <code>MethodHandle</code> invoker bound to the target, or a
+     *         reflective one when the method cannot be unreflected
+     */
+    static Invoker of(Object target, Method method) {
+        try {
+            return new HandleInvoker(target, method);
+        } catch (IllegalAccessException | RuntimeException ex) {
+            return new ReflectionInvoker(target, method);
+        }
+    }
+
+    final class HandleInvoker implements Invoker {
+
+        private final MethodHandle handle;
+
+        HandleInvoker(Object target, Method method) throws IllegalAccessException {
+            method.setAccessible(true);
+
+            int count = method.getParameterCount();
+            handle = MethodHandles.lookup().unreflect(method)
+                    .bindTo(target)
+                    .asType(MethodType.genericMethodType(count))
+                    .asSpreader(Object[].class, count);
+        }
+
+        @Override
+        public Object invoke(Object[] args) throws Exception {
+            try {
+                return (Object) handle.invokeExact(args);
+            } catch (Exception | Error ex) {
+                throw ex;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    final class ReflectionInvoker implements Invoker {
+
+        private final Object target;
+        private final Method method;
+
+        ReflectionInvoker(Object target, Method method) {
+            this.target = target;
+            this.method = method;
+        }
+
+        @Override
+        public Object invoke(Object[] args) throws Exception {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof Exception) throw (Exception) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw ex;
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.zerh.servletio;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a JSON request body is malformed or does not fit the type it
+ * is bound to. An action failing with it gets a 400 response.
+ */
+public class JsonParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Position of the error in the body, in bytes.
+     */
+    public final long offset;
+
+    public JsonParseException(String message, long offset) {
+        super(message + " at byte " + offset);
+        this.offset = offset;
+    }
+}
@@ -0,0 +1,1033 @@
+package com.github.zerh.servletio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.zerh.servletio.utils.IOUtils;
+
+/**
+ * Parses JSON from a stream into a type in one pass, decoding the UTF-8
+ * bytes of a pooled buffer as they are read: the body is never held as a
+ * whole nor turned into a <code>String</code>.
+ * <p>
+ * Types map as {@link JsonWriter} writes them. Beans are filled through
+ * their public setters and fields, records through their canonical
+ * constructor, with a deserializer built once per type. Primitive
+ * properties are parsed and set without boxing, and property names are
+ * matched against the decoded chars without allocating a string. Unknown
+ * properties are skipped. A JSON string bound to another type, an enum or a
+ * <code>LocalDate</code> for instance, goes through its {@link Converter}.
+ */
+final class JsonReader {
+
+    /**
+     * Deepest nesting of objects and arrays accepted.
+     */
+    static final int MAX_DEPTH = 256;
+
+    private static final ConcurrentMap<Type, Deserializer> DESERIALIZERS = new ConcurrentHashMap<>();
+
+    private final InputStream in;
+    private byte[] buffer;
+    private int pos;
+    private int limit;
+
+    /**
+     * Bytes read before the buffer, for error offsets.
+     */
+    private long consumed;
+    private int depth;
+
+    /**
+     * The last string or number read, and the hash of the string.
+     */
+    private char[] chars = new char[64];
+    private int length;
+    private int hash;
+
+    private JsonReader(InputStream in) {
+        this.in = in;
+        this.buffer = IOUtils.acquire();
+    }
+
+    /**
+     * Reads a whole JSON document, nothing but whitespace may follow it.
+     *
+     * @throws JsonParseException
+     *             if the JSON is malformed or does not fit the type
+     */
+    static Object read(InputStream in, Type type) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            Object value = reader.value(deserializer(type));
+            if (value == null && type instanceof Class && ((Class<?>) type).isPrimitive())
+                throw reader.error("null for a " + type);
+            if (reader.peek() >= 0) throw reader.error("unexpected data after the value");
+            return value;
+        } finally {
+            IOUtils.release(reader.buffer);
+            reader.buffer = null;
+        }
+    }
+
+    // tokens
+
+    private boolean fill() throws IOException {
+        consumed += limit;
+        pos = 0;
+        limit = in.read(buffer, 0, buffer.length);
+        if (limit > 0) return true;
+
+        limit = 0;
+        return false;
+    }
+
+    private int next() throws IOException {
+        if (pos == limit && !fill()) throw error("unexpected end of the body");
+        return buffer[pos++] & 0xff;
+    }
+
+    /**
+     * @return the next byte that is not whitespace, not consumed, or -1 at
+     *         the end
+     */
+    int peek() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) return -1;
+
+            int b = buffer[pos];
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') pos++;
+            else return b & 0xff;
+        }
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) throw error("expected '" + c + "'");
+        pos++;
+    }
+
+    JsonParseException error(String message) {
+        return new JsonParseException(message, consumed + pos);
+    }
+
+    private void enter() throws JsonParseException {
+        if (++depth > MAX_DEPTH) throw error("JSON nested deeper than " + MAX_DEPTH);
+    }
+
+    void beginObject() throws IOException {
+        expect('{');
+        enter();
+    }
+
+    void beginArray() throws IOException {
+        expect('[');
+        enter();
+    }
+
+    /**
+     * @return true, consuming it, if the object or array ends here
+     */
+    boolean endOf(char close) throws IOException {
+        if (peek() != close) return false;
+        pos++;
+        depth--;
+        return true;
+    }
+
+    /**
+     * @return true if a comma announces another element, false if the object
+     *         or array ends
+     */
+    boolean more(char close) throws IOException {
+        int c = peek();
+        if (c == ',') {
+            pos++;
+            return true;
+        }
+        if (c == close) {
+            pos++;
+            depth--;
+            return false;
+        }
+        throw error("expected ',' or '" + close + "'");
+    }
+
+    /**
+     * Reads a property name and its colon into {@link #chars}.
+     */
+    void readKey() throws IOException {
+        if (peek() != '"') throw error("expected a property name");
+        readChars();
+        expect(':');
+    }
+
+    /**
+     * @return true, consuming it, if the next value is null
+     */
+    boolean nextIsNull() throws IOException {
+        if (peek() != 'n') return false;
+        literal("null");
+        return true;
+    }
+
+    private void literal(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++)
+            if (next() != literal.charAt(i)) throw error("expected " + literal);
+    }
+
+    private void append(char c) {
+        if (length == chars.length) chars = Arrays.copyOf(chars, length * 2);
+        chars[length++] = c;
+        hash = 31 * hash + c;
+    }
+
+    /**
+     * Decodes the string at the position into {@link #chars}, its hash being
+     * the one of the same <code>String</code>.
+     */
+    private void readChars() throws IOException {
+        expect('"');
+        length = 0;
+        hash = 0;
+
+        while (true) {
+            int b = next();
+            if (b == '"') return;
+
+            if (b == '\\') {
+                escape();
+            } else if (b < 0x20) {
+                throw error("control character in a string");
+            } else if (b < 0x80) {
+                append((char) b);
+            } else if ((b & 0xe0) == 0xc0) {
+                append((char) ((b & 0x1f) << 6 | continuation()));
+            } else if ((b & 0xf0) == 0xe0) {
+                append((char) ((b & 0x0f) << 12 | continuation() << 6 | continuation()));
+            } else if ((b & 0xf8) == 0xf0) {
+                int code = (b & 0x07) << 18 | continuation() << 12 | continuation() << 6 | continuation();
+                append(Character.highSurrogate(code));
+                append(Character.lowSurrogate(code));
+            } else {
+                throw error("malformed UTF-8");
+            }
+        }
+    }
+
+    private int continuation() throws IOException {
+        int b = next();
+        if ((b & 0xc0) != 0x80) throw error("malformed UTF-8");
+        return b & 0x3f;
+    }
+
+    private void escape() throws IOException {
+        int c = next();
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+            append((char) c);
+            break;
+        case 'b':
+            append('\b');
+            break;
+        case 'f':
+            append('\f');
+            break;
+        case 'n':
+            append('\n');
+            break;
+        case 'r':
+            append('\r');
+            break;
+        case 't':
+            append('\t');
+            break;
+        case 'u':
+            int code = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(next(), 16);
+                if (digit < 0) throw error("malformed \\u escape");
+                code = code << 4 | digit;
+            }
+            append((char) code);
+            break;
+        default:
+            throw error("unknown escape \\" + (char) c);
+        }
+    }
+
+    String readString() throws IOException {
+        if (peek() != '"') throw error("expected a string");
+        readChars();
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Reads the chars of the number at the position into {@link #chars}.
+     *
+     * @return true if it is an integer, without fraction nor exponent
+     */
+    private boolean readNumberChars() throws IOException {
+        int c = peek();
+        if (c != '-' && (c < '0' || c > '9')) throw error("expected a number");
+
+        length = 0;
+        boolean integer = true;
+        while (pos < limit || fill()) {
+            c = buffer[pos];
+            if (c >= '0' && c <= '9' || c == '-' || c == '+') {
+                append((char) c);
+            } else if (c == '.' || c == 'e' || c == 'E') {
+                append((char) c);
+                integer = false;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        return integer;
+    }
+
+    long readLong() throws IOException {
+        if (readNumberChars() && length > 0 && length <= 18) {
+            boolean negative = chars[0] == '-';
+            long value = 0;
+            for (int i = negative ? 1 : 0; i < length; i++) {
+                char c = chars[i];
+                if (c < '0' || c > '9') throw error("malformed number");
+                value = value * 10 + (c - '0');
+            }
+            if (negative && length == 1) throw error("malformed number");
+            return negative ? -value : value;
+        }
+
+        try {
+            return bigDecimal().longValueExact();
+        } catch (ArithmeticException e) {
+            throw error("not an integer in the range of a long");
+        }
+    }
+
+    int readInt() throws IOException {
+        long value = readLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw error("integer out of the range of an int");
+        return (int) value;
+    }
+
+    short readShort() throws IOException {
+        long value = readLong();
+        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) throw error("integer out of the range of a short");
+        return (short) value;
+    }
+
+    byte readByte() throws IOException {
+        long value = readLong();
+        if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) throw error("integer out of the range of a byte");
+        return (byte) value;
+    }
+
+    double readDouble() throws IOException {
+        readNumberChars();
+        try {
+            return Double.parseDouble(new String(chars, 0, length));
+        } catch (NumberFormatException e) {
+            throw error("malformed number");
+        }
+    }
+
+    BigDecimal readBigDecimal() throws IOException {
+        readNumberChars();
+        return bigDecimal();
+    }
+
+    private BigDecimal bigDecimal() throws JsonParseException {
+        try {
+            return new BigDecimal(chars, 0, length);
+        } catch (NumberFormatException e) {
+            throw error("malformed number");
+        }
+    }
+
+    boolean readBoolean() throws IOException {
+        int c = peek();
+        if (c == 't') {
+            literal("true");
+            return true;
+        }
+        if (c == 'f') {
+            literal("false");
+            return false;
+        }
+        throw error("expected a boolean");
+    }
+
+    char readChar() throws IOException {
+        String value = readString();
+        if (value.length() != 1) throw error("expected a single character");
+        return value.charAt(0);
+    }
+
+    void skipValue() throws IOException {
+        switch (peek()) {
+        case '{':
+            beginObject();
+            if (!endOf('}')) {
+                do {
+                    readKey();
+                    skipValue();
+                } while (more('}'));
+            }
+            break;
+        case '[':
+            beginArray();
+            if (!endOf(']')) {
+                do {
+                    skipValue();
+                } while (more(']'));
+            }
+            break;
+        case '"':
+            readChars();
+            break;
+        case 't':
+        case 'f':
+            readBoolean();
+            break;
+        case 'n':
+            literal("null");
+            break;
+        default:
+            readNumberChars();
+        }
+    }
+
+    /**
+     * @return the value as maps, lists, strings, longs (or
+     *         <code>BigDecimal</code>s past their range), doubles and
+     *         booleans
+     */
+    Object readAny() throws IOException {
+        switch (peek()) {
+        case '{': {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            beginObject();
+            if (!endOf('}')) {
+                do {
+                    readKey();
+                    String key = new String(chars, 0, length);
+                    map.put(key, nextIsNull() ? null : readAny());
+                } while (more('}'));
+            }
+            return map;
+        }
+        case '[': {
+            List<Object> list = new ArrayList<Object>();
+            beginArray();
+            if (!endOf(']')) {
+                do {
+                    list.add(nextIsNull() ? null : readAny());
+                } while (more(']'));
+            }
+            return list;
+        }
+        case '"':
+            return readString();
+        case 't':
+        case 'f':
+            return readBoolean();
+        case 'n':
+            literal("null");
+            return null;
+        default:
+            boolean integer = readNumberChars();
+            BigDecimal value = bigDecimal();
+            if (!integer) return value.doubleValue();
+            try {
+                return value.longValueExact();
+            } catch (ArithmeticException e) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return the value read by the deserializer, or null for a JSON null
+     */
+    Object value(Deserializer deserializer) throws IOException {
+        return nextIsNull() ? null : deserializer.read(this);
+    }
+
+    // deserializers
+
+    interface Deserializer {
+        Object read(JsonReader reader) throws IOException;
+    }
+
+    static Deserializer deserializer(Type type) {
+        Deserializer deserializer = DESERIALIZERS.get(type);
+        if (deserializer == null) {
+            deserializer = create(type);
+            Deserializer existing = DESERIALIZERS.putIfAbsent(type, deserializer);
+            if (existing != null) deserializer = existing;
+        }
+        return deserializer;
+    }
+
+    static Class<?> rawClass(Type type) {
+        if (type instanceof Class) return (Class<?>) type;
+        if (type instanceof ParameterizedType) return rawClass(((ParameterizedType) type).getRawType());
+        if (type instanceof GenericArrayType)
+            return Array.newInstance(rawClass(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        if (type instanceof WildcardType) return rawClass(((WildcardType) type).getUpperBounds()[0]);
+        if (type instanceof TypeVariable) {
+            Type[] bounds = ((TypeVariable<?>) type).getBounds();
+            return bounds.length > 0 ? rawClass(bounds[0]) : Object.class;
+        }
+        return Object.class;
+    }
+
+    /**
+     * @return the type argument, Object if the type is raw
+     */
+    private static Type argument(Type type, int index) {
+        return type instanceof ParameterizedType ? ((ParameterizedType) type).getActualTypeArguments()[index]
+                : Object.class;
+    }
+
+    private static Deserializer create(Type type) {
+        Class<?> raw = rawClass(type);
+
+        if (raw == Object.class) return JsonReader::readAny;
+        if (raw == String.class || raw == CharSequence.class) return JsonReader::readString;
+        if (raw == int.class || raw == Integer.class) return JsonReader::readInt;
+        if (raw == long.class || raw == Long.class) return JsonReader::readLong;
+        if (raw == double.class || raw == Double.class) return JsonReader::readDouble;
+        if (raw == boolean.class || raw == Boolean.class) return JsonReader::readBoolean;
+        if (raw == float.class || raw == Float.class) return reader -> (float) reader.readDouble();
+        if (raw == short.class || raw == Short.class) return JsonReader::readShort;
+        if (raw == byte.class || raw == Byte.class) return JsonReader::readByte;
+        if (raw == char.class || raw == Character.class) return JsonReader::readChar;
+        if (raw == BigDecimal.class) return JsonReader::readBigDecimal;
+        if (raw == BigInteger.class) return reader -> {
+            try {
+                return reader.readBigDecimal().toBigIntegerExact();
+            } catch (ArithmeticException e) {
+                throw reader.error("expected an integer");
+            }
+        };
+        if (raw == Number.class) return reader -> {
+            Object value = reader.readAny();
+            if (!(value instanceof Number)) throw reader.error("expected a number");
+            return value;
+        };
+
+        if (raw == Optional.class) {
+            Lazy element = new Lazy(argument(type, 0));
+            return reader -> Optional.ofNullable(reader.value(element.get()));
+        }
+        if (raw == byte[].class) return reader -> {
+            try {
+                return Base64.getDecoder().decode(reader.readString());
+            } catch (IllegalArgumentException e) {
+                throw reader.error("malformed base 64");
+            }
+        };
+        if (raw.isArray()) {
+            Type component = type instanceof GenericArrayType ? ((GenericArrayType) type).getGenericComponentType()
+                    : raw.getComponentType();
+            return new ArrayDeserializer(raw.getComponentType(), component);
+        }
+        if (Collection.class.isAssignableFrom(raw)) return new CollectionDeserializer(raw, argument(type, 0));
+        if (Map.class.isAssignableFrom(raw)) return new MapDeserializer(raw, argument(type, 0), argument(type, 1));
+
+        if (raw.isEnum() || raw.getName().startsWith("java.")) return new ConvertedDeserializer(raw);
+
+        if (BeanReader.recordAccessors(raw).length > 0) return new RecordDeserializer(raw);
+        return new BeanDeserializer(raw);
+    }
+
+    /**
+     * A deserializer looked up on first use, so types can refer to
+     * themselves.
+     */
+    private static final class Lazy {
+
+        private final Type type;
+        private Deserializer deserializer;
+
+        Lazy(Type type) {
+            this.type = type;
+        }
+
+        Deserializer get() {
+            Deserializer d = deserializer;
+            if (d == null) deserializer = d = deserializer(type);
+            return d;
+        }
+    }
+
+    /**
+     * Reads a JSON string with the converter of the type.
+     */
+    private static final class ConvertedDeserializer implements Deserializer {
+
+        private final Class<?> type;
+
+        ConvertedDeserializer(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public Object read(JsonReader reader) throws IOException {
+            if (reader.peek() != '"') throw reader.error("expected a string for a " + type.getSimpleName());
+
+            String value = reader.readString();
+            try {
+                return Converters.of(type).convert(value);
+            } catch (RuntimeException e) {
+                throw reader.error("cannot convert \"" + value + "\" to a " + type.getSimpleName());
+            }
+        }
+    }
+
+    private static final class ArrayDeserializer implements Deserializer {
+
+        private final Class<?> componentType;
+        private final Lazy component;
+
+        ArrayDeserializer(Class<?> componentType, Type component) {
+            this.componentType = componentType;
+            this.component = new Lazy(component);
+        }
+
+        @Override
+        public Object read(JsonReader reader) throws IOException {
+            reader.beginArray();
+            if (reader.endOf(']')) return Array.newInstance(componentType, 0);
+
+            if (componentType == int.class) {
+                int[] array = new int[16];
+                int n = 0;
+                do {
+                    if (n == array.length) array = Arrays.copyOf(array, n * 2);
+                    array[n++] = reader.readInt();
+                } while (reader.more(']'));
+                return Arrays.copyOf(array, n);
+            }
+
+            if (componentType == long.class) {
+                long[] array = new long[16];
+                int n = 0;
+                do {
+                    if (n == array.length) array = Arrays.copyOf(array, n * 2);
+                    array[n++] = reader.readLong();
+                } while (reader.more(']'));
+                return Arrays.copyOf(array, n);
+            }
+
+            if (componentType == double.class) {
+                double[] array = new double[16];
+                int n = 0;
+                do {
+                    if (n == array.length) array = Arrays.copyOf(array, n * 2);
+                    array[n++] = reader.readDouble();
+                } while (reader.more(']'));
+                return Arrays.copyOf(array, n);
+            }
+
+            List<Object> values = new ArrayList<Object>();
+            do {
+                Object value = reader.value(component.get());
+                if (value == null && componentType.isPrimitive()) throw reader.error("null in an array of " + componentType);
+                values.add(value);
+            } while (reader.more(']'));
+
+            Object array = Array.newInstance(componentType, values.size());
+            for (int i = 0; i < values.size(); i++)
+                Array.set(array, i, values.get(i));
+            return array;
+        }
+    }
+
+    private static final class CollectionDeserializer implements Deserializer {
+
+        private final MethodHandle constructor;
+        private final Lazy element;
+
+        CollectionDeserializer(Class<?> type, Type element) {
+            Class<?> implementation = type.isAssignableFrom(ArrayList.class) ? ArrayList.class
+                    : type.isAssignableFrom(LinkedHashSet.class) ? LinkedHashSet.class
+                    : type.isAssignableFrom(TreeSet.class) && SortedSet.class.isAssignableFrom(type) ? TreeSet.class
+                    : type.isAssignableFrom(ArrayDeque.class) && Queue.class.isAssignableFrom(type) ? ArrayDeque.class
+                    : type;
+            this.constructor = noArgConstructor(implementation);
+            this.element = new Lazy(element);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object read(JsonReader reader) throws IOException {
+            Collection<Object> collection = (Collection<Object>) newInstance(constructor);
+
+            reader.beginArray();
+            if (!reader.endOf(']')) {
+                do {
+                    collection.add(reader.value(element.get()));
+                } while (reader.more(']'));
+            }
+            return collection;
+        }
+    }
+
+    private static final class MapDeserializer implements Deserializer {
+
+        private final MethodHandle constructor;
+        private final Class<?> keyType;
+        private final Lazy value;
+
+        MapDeserializer(Class<?> type, Type key, Type value) {
+            Class<?> implementation = type.isAssignableFrom(LinkedHashMap.class) ? LinkedHashMap.class
+                    : type.isAssignableFrom(TreeMap.class) && SortedMap.class.isAssignableFrom(type) ? TreeMap.class
+                    : type;
+            this.constructor = noArgConstructor(implementation);
+            this.keyType = rawClass(key);
+            this.value = new Lazy(value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object read(JsonReader reader) throws IOException {
+            Map<Object, Object> map = (Map<Object, Object>) newInstance(constructor);
+
+            reader.beginObject();
+            if (!reader.endOf('}')) {
+                do {
+                    reader.readKey();
+                    String name = new String(reader.chars, 0, reader.length);
+                    Object key;
+                    try {
+                        key = keyType == Object.class ? name : Converters.of(keyType).convert(name);
+                    } catch (RuntimeException e) {
+                        throw reader.error("cannot convert the key \"" + name + "\" to a " + keyType.getSimpleName());
+                    }
+                    map.put(key, reader.value(value.get()));
+                } while (reader.more('}'));
+            }
+            return map;
+        }
+    }
+
+    private static MethodHandle noArgConstructor(Class<?> type) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException | RuntimeException ex) {
+            throw new IllegalArgumentException(type.getName() + " has no accessible no-arg constructor", ex);
+        }
+    }
+
+    private static Object newInstance(MethodHandle constructor) {
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Properties by name in an open addressing table, probed with the hash
+     * and chars of the name just read.
+     */
+    private static final class Names<T> {
+
+        private final char[][] names;
+        private final Object[] values;
+        private final int mask;
+
+        Names(Map<String, T> entries) {
+            int size = Integer.highestOneBit(Math.max(entries.size(), 1) * 2 - 1) << 1;
+            names = new char[size][];
+            values = new Object[size];
+            mask = size - 1;
+
+            for (Map.Entry<String, T> entry : entries.entrySet()) {
+                int i = entry.getKey().hashCode() & mask;
+                while (names[i] != null)
+                    i = (i + 1) & mask;
+                names[i] = entry.getKey().toCharArray();
+                values[i] = entry.getValue();
+            }
+        }
+
+        /**
+         * @return the value of the name last read by the reader, or null
+         */
+        @SuppressWarnings("unchecked")
+        T find(JsonReader reader) {
+            for (int i = reader.hash & mask; names[i] != null; i = (i + 1) & mask) {
+                char[] name = names[i];
+                if (name.length == reader.length && equals(name, reader.chars)) return (T) values[i];
+            }
+            return null;
+        }
+
+        private static boolean equals(char[] name, char[] chars) {
+            for (int i = 0; i < name.length; i++)
+                if (name[i] != chars[i]) return false;
+            return true;
+        }
+    }
+
+    /**
+     * Fills a bean through its public setters and fields. A JSON string is
+     * converted with the converter of the class, when it has one.
+     */
+    private static final class BeanDeserializer implements Deserializer {
+
+        private final Class<?> type;
+        private final MethodHandle constructor;
+        private final Names<Slot> slots;
+
+        BeanDeserializer(Class<?> type) {
+            this.type = type;
+            this.constructor = noArgConstructor(type);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Map<String, Slot> slots = new LinkedHashMap<String, Slot>();
+
+            // public setters only: the body must not reach internal ones
+            for (Method m : type.getMethods()) {
+                String name = m.getName();
+                if (Modifier.isStatic(m.getModifiers()) || m.isBridge() || m.getParameterCount() != 1
+                        || name.length() <= 3 || !name.startsWith("set"))
+                    continue;
+
+                String property = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+                if (slots.containsKey(property)) continue;
+                try {
+                    m.setAccessible(true);
+                    slots.put(property, new Slot(m.getParameterTypes()[0], m.getGenericParameterTypes()[0],
+                            lookup.unreflect(m)));
+                } catch (IllegalAccessException | RuntimeException ex) {
+                    // not settable
+                }
+            }
+
+            for (Field f : type.getFields()) {
+                int modifiers = f.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers) || slots.containsKey(f.getName()))
+                    continue;
+                try {
+                    slots.put(f.getName(), new Slot(f.getType(), f.getGenericType(), lookup.unreflectSetter(f)));
+                } catch (IllegalAccessException ex) {
+                    // not settable
+                }
+            }
+
+            this.slots = new Names<Slot>(slots);
+        }
+
+        @Override
+        public Object read(JsonReader reader) throws IOException {
+            if (reader.peek() == '"') {
+                String value = reader.readString();
+                try {
+                    return Converters.of(type).convert(value);
+                } catch (RuntimeException e) {
+                    throw reader.error("cannot convert \"" + value + "\" to a " + type.getSimpleName());
+                }
+            }
+
+            Object bean = newInstance(constructor);
+
+            reader.beginObject();
+            if (!reader.endOf('}')) {
+                do {
+                    reader.readKey();
+                    Slot slot = slots.find(reader);
+                    if (slot == null) reader.skipValue();
+                    else slot.read(reader, bean);
+                } while (reader.more('}'));
+            }
+            return bean;
+        }
+    }
+
+    /**
+     * A settable property, set without boxing when it is primitive.
+     */
+    private static final class Slot {
+
+        private static final int OBJECT = 0;
+        private static final int INT = 1;
+        private static final int LONG = 2;
+        private static final int DOUBLE = 3;
+        private static final int BOOLEAN = 4;
+        private static final int FLOAT = 5;
+        private static final int SHORT = 6;
+        private static final int BYTE = 7;
+        private static final int CHAR = 8;
+
+        private final int kind;
+        private final MethodHandle setter;
+        private final Lazy deserializer;
+
+        Slot(Class<?> type, Type genericType, MethodHandle setter) {
+            kind = type == int.class ? INT
+                    : type == long.class ? LONG
+                    : type == double.class ? DOUBLE
+                    : type == boolean.class ? BOOLEAN
+                    : type == float.class ? FLOAT
+                    : type == short.class ? SHORT
+                    : type == byte.class ? BYTE
+                    : type == char.class ? CHAR
+                    : OBJECT;
+            this.setter = setter.asType(MethodType.methodType(void.class, Object.class,
+                    kind == OBJECT ? Object.class : type));
+            this.deserializer = kind == OBJECT ? new Lazy(genericType) : null;
+        }
+
+        void read(JsonReader reader, Object bean) throws IOException {
+            try {
+                if (reader.nextIsNull()) {
+                    if (kind == OBJECT) setter.invokeExact(bean, (Object) null);
+                    return;
+                }
+
+                switch (kind) {
+                case INT:
+                    setter.invokeExact(bean, reader.readInt());
+                    break;
+                case LONG:
+                    setter.invokeExact(bean, reader.readLong());
+                    break;
+                case DOUBLE:
+                    setter.invokeExact(bean, reader.readDouble());
+                    break;
+                case BOOLEAN:
+                    setter.invokeExact(bean, reader.readBoolean());
+                    break;
+                case FLOAT:
+                    setter.invokeExact(bean, (float) reader.readDouble());
+                    break;
+                case SHORT:
+                    setter.invokeExact(bean, reader.readShort());
+                    break;
+                case BYTE:
+                    setter.invokeExact(bean, reader.readByte());
+                    break;
+                case CHAR:
+                    setter.invokeExact(bean, reader.readChar());
+                    break;
+                default:
+                    setter.invokeExact(bean, deserializer.get().read(reader));
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads the components of a record, then calls its canonical
+     * constructor.
+     */
+    private static final class RecordDeserializer implements Deserializer {
+
+        private final MethodHandle constructor;
+        private final Lazy[] components;
+        private final Object[] defaults;
+        private final Names<Integer> indexes;
+
+        RecordDeserializer(Class<?> type) {
+            Method[] accessors = BeanReader.recordAccessors(type);
+            Class<?>[] types = new Class<?>[accessors.length];
+            components = new Lazy[accessors.length];
+            defaults = new Object[accessors.length];
+            Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
+
+            for (int i = 0; i < accessors.length; i++) {
+                types[i] = accessors[i].getReturnType();
+                components[i] = new Lazy(accessors[i].getGenericReturnType());
+                if (types[i].isPrimitive()) defaults[i] = Array.get(Array.newInstance(types[i], 1), 0);
+                indexes.put(accessors[i].getName(), i);
+            }
+            this.indexes = new Names<Integer>(indexes);
+
+            try {
+                Constructor<?> canonical = type.getDeclaredConstructor(types);
+                canonical.setAccessible(true);
+                constructor = MethodHandles.lookup().unreflectConstructor(canonical)
+                        .asSpreader(Object[].class, types.length)
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+            } catch (NoSuchMethodException | IllegalAccessException | RuntimeException ex) {
+                throw new IllegalArgumentException(type.getName() + " has no accessible canonical constructor", ex);
+            }
+        }
+
+        @Override
+        public Object read(JsonReader reader) throws IOException {
+            Object[] args = defaults.clone();
+
+            reader.beginObject();
+            if (!reader.endOf('}')) {
+                do {
+                    reader.readKey();
+                    Integer index = indexes.find(reader);
+                    if (index == null) {
+                        reader.skipValue();
+                    } else {
+                        Object value = reader.value(components[index].get());
+                        if (value != null || defaults[index] == null) args[index] = value;
+                    }
+                } while (reader.more('}'));
+            }
+
+            try {
+                return (Object) constructor.invokeExact(args);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
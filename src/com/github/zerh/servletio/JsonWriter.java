@@ -0,0 +1,321 @@
+package com.github.zerh.servletio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalAmount;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.BaseStream;
+
+/**
+ * Writes values as JSON straight to a stream, through a bounded
+ * {@link Utf8Output} buffer, so long lists are flushed as they are written.
+ * <p>
+ * Strings, numbers, booleans, enums (by name), maps, iterables, streams and
+ * arrays map to their JSON counterpart; <code>byte[]</code> to a base 64
+ * string; dates, <code>java.time</code> values, UUIDs and URIs to their ISO
+ * or string form; an <code>Optional</code> to its value. Any other object is
+ * written as an object of its record components, getters and public fields,
+ * with a serializer built once per class from {@link BeanReader}, its
+ * property names encoded in advance.
+ */
+final class JsonWriter {
+
+    /**
+     * Deepest nesting of objects and arrays, past it the value is taken for a
+     * cycle.
+     */
+    static final int MAX_DEPTH = 256;
+
+    private static final byte[] NULL = Utf8Output.ascii("null");
+    private static final byte[] TRUE = Utf8Output.ascii("true");
+    private static final byte[] FALSE = Utf8Output.ascii("false");
+
+    private static final ConcurrentMap<Class<?>, Serializer> SERIALIZERS = new ConcurrentHashMap<>();
+
+    private final Utf8Output out;
+    private int depth;
+
+    private JsonWriter(Utf8Output out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes the value to the stream, which is left open.
+     *
+     * @throws IllegalStateException
+     *             if the value nests deeper than {@link #MAX_DEPTH}, or a
+     *             getter failed
+     */
+    static void write(Object value, OutputStream stream) throws IOException {
+        Utf8Output out = new Utf8Output(stream);
+        try {
+            new JsonWriter(out).value(value);
+            out.flush();
+        } finally {
+            out.release();
+        }
+    }
+
+    static byte[] toBytes(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            write(value, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void value(Object value) throws IOException {
+        if (value == null) out.write(NULL);
+        else serializer(value.getClass()).write(this, value);
+    }
+
+    private void string(CharSequence value) throws IOException {
+        out.write('"');
+        out.write(value, Utf8Output.JSON);
+        out.write('"');
+    }
+
+    private void enter() {
+        if (++depth > MAX_DEPTH) throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH + ", a cycle?");
+    }
+
+    private void exit() {
+        depth--;
+    }
+
+    private interface Serializer {
+        void write(JsonWriter json, Object value) throws IOException;
+    }
+
+    private static Serializer serializer(Class<?> type) {
+        Serializer serializer = SERIALIZERS.get(type);
+        if (serializer == null) serializer = SERIALIZERS.computeIfAbsent(type, JsonWriter::create);
+
+        return serializer;
+    }
+
+    private static Serializer create(Class<?> type) {
+        Serializer serializer = builtin(type);
+        return serializer != null ? serializer : new BeanSerializer(type);
+    }
+
+    /**
+     * @return the serializer of a type with a JSON counterpart, or null for
+     *         a bean
+     */
+    private static Serializer builtin(Class<?> type) {
+        if (CharSequence.class.isAssignableFrom(type)) return (json, value) -> json.string((CharSequence) value);
+        if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class)
+            return (json, value) -> json.out.write(((Number) value).longValue());
+        if (type == Boolean.class) return (json, value) -> json.out.write((Boolean) value ? TRUE : FALSE);
+        if (type == Double.class) return (json, value) -> json.number((Double) value);
+        if (type == Float.class) return (json, value) -> json.number((Float) value);
+        if (Number.class.isAssignableFrom(type)) return JsonWriter::numberText;
+        if (type == Character.class) return (json, value) -> json.string(String.valueOf(value));
+        if (Enum.class.isAssignableFrom(type)) return (json, value) -> json.string(((Enum<?>) value).name());
+        if (Optional.class.isAssignableFrom(type)) return (json, value) -> json.value(((Optional<?>) value).orElse(null));
+        if (Map.class.isAssignableFrom(type)) return JsonWriter::map;
+        if (Iterable.class.isAssignableFrom(type)) return (json, value) -> json.elements(((Iterable<?>) value).iterator());
+        if (Iterator.class.isAssignableFrom(type)) return (json, value) -> json.elements((Iterator<?>) value);
+        if (BaseStream.class.isAssignableFrom(type)) return (json, value) -> json.elements(((BaseStream<?, ?>) value).iterator());
+        if (type == byte[].class) return (json, value) -> json.string(Base64.getEncoder().encodeToString((byte[]) value));
+        if (type.isArray()) return JsonWriter::array;
+        if (Date.class.isAssignableFrom(type)) return (json, value) -> json.string(((Date) value).toInstant().toString());
+        if (TemporalAccessor.class.isAssignableFrom(type) || TemporalAmount.class.isAssignableFrom(type)
+                || type == UUID.class || type == URI.class || type == URL.class)
+            return (json, value) -> json.string(value.toString());
+
+        return null;
+    }
+
+    private void number(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) out.write(NULL);
+        else out.write(Double.toString(value), null);
+    }
+
+    private void number(float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) out.write(NULL);
+        else out.write(Float.toString(value), null);
+    }
+
+    private static void numberText(JsonWriter json, Object value) throws IOException {
+        if (value instanceof BigDecimal || value instanceof BigInteger) json.out.write(value.toString(), null);
+        else if (value instanceof AtomicInteger || value instanceof AtomicLong || value instanceof LongAdder)
+            json.out.write(((Number) value).longValue());
+        else json.number(((Number) value).doubleValue());
+    }
+
+    private static void map(JsonWriter json, Object value) throws IOException {
+        json.enter();
+        json.out.write('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            if (!first) json.out.write(',');
+            first = false;
+
+            Object key = entry.getKey();
+            json.string(key instanceof CharSequence ? (CharSequence) key
+                    : key instanceof Enum ? ((Enum<?>) key).name() : String.valueOf(key));
+            json.out.write(':');
+            json.value(entry.getValue());
+        }
+        json.out.write('}');
+        json.exit();
+    }
+
+    private void elements(Iterator<?> it) throws IOException {
+        enter();
+        out.write('[');
+        if (it.hasNext()) {
+            value(it.next());
+            while (it.hasNext()) {
+                out.write(',');
+                value(it.next());
+            }
+        }
+        out.write(']');
+        exit();
+    }
+
+    private static void array(JsonWriter json, Object value) throws IOException {
+        json.enter();
+        json.out.write('[');
+        if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) json.out.write(',');
+                json.value(array[i]);
+            }
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) json.out.write(',');
+                json.out.write(array[i]);
+            }
+        } else if (value instanceof long[]) {
+            long[] array = (long[]) value;
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) json.out.write(',');
+                json.out.write(array[i]);
+            }
+        } else if (value instanceof boolean[]) {
+            boolean[] array = (boolean[]) value;
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) json.out.write(',');
+                json.out.write(array[i] ? TRUE : FALSE);
+            }
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) json.out.write(',');
+                json.number(array[i]);
+            }
+        } else {
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) json.out.write(',');
+                json.value(Array.get(value, i));
+            }
+        }
+        json.out.write(']');
+        json.exit();
+    }
+
+    /**
+     * Writes a bean as an object, its property names encoded with their
+     * quotes, colon and separator once for the class.
+     */
+    private static final class BeanSerializer implements Serializer {
+
+        private static final byte[] EMPTY = Utf8Output.ascii("{}");
+
+        private final BeanReader.Property[] properties;
+        private final byte[][] names;
+
+        /**
+         * The serializer of each property whose final type has a JSON
+         * counterpart, null for those looked up by the class of the value.
+         */
+        private final Serializer[] serializers;
+
+        BeanSerializer(Class<?> type) {
+            properties = BeanReader.of(type).properties;
+            names = new byte[properties.length][];
+            serializers = new Serializer[properties.length];
+
+            for (int i = 0; i < properties.length; i++) {
+                StringBuilder name = new StringBuilder().append(i == 0 ? '{' : ',').append('"');
+                for (char c : properties[i].name.toCharArray()) {
+                    if (c < 0x80 && Utf8Output.JSON[c] != null) name.append(new String(Utf8Output.JSON[c], StandardCharsets.US_ASCII));
+                    else name.append(c);
+                }
+                names[i] = name.append("\":").toString().getBytes(StandardCharsets.UTF_8);
+
+                Class<?> propertyType = properties[i].type;
+                if (propertyType.isPrimitive()) propertyType = boxed(propertyType);
+                if (Modifier.isFinal(propertyType.getModifiers())) serializers[i] = builtin(propertyType);
+            }
+        }
+
+        @Override
+        public void write(JsonWriter json, Object bean) throws IOException {
+            if (properties.length == 0) {
+                json.out.write(EMPTY);
+                return;
+            }
+
+            json.enter();
+            for (int i = 0; i < properties.length; i++) {
+                json.out.write(names[i]);
+
+                Object value;
+                try {
+                    value = properties[i].get(bean);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException("cannot read " + properties[i].name + " of " + bean.getClass().getName(), e);
+                }
+
+                if (value == null) json.out.write(NULL);
+                else if (serializers[i] != null) serializers[i].write(json, value);
+                else json.value(value);
+            }
+            json.out.write('}');
+            json.exit();
+        }
+
+        private static Class<?> boxed(Class<?> primitive) {
+            return primitive == int.class ? Integer.class
+                    : primitive == long.class ? Long.class
+                    : primitive == boolean.class ? Boolean.class
+                    : primitive == double.class ? Double.class
+                    : primitive == float.class ? Float.class
+                    : primitive == short.class ? Short.class
+                    : primitive == byte.class ? Byte.class
+                    : Character.class;
+        }
+    }
+}
@@ -29,31 +29,27 @@ public class Jsp implements Render{
 		return viewResolver;
 	}
 
+	/**
+	 * Resolves this view with its own resolver instead of the one of the
+	 * servlet, see {@link ServletIO#viewResolver()}. Its views are cached by
+	 * resolved path, so a resolver created for each render is fine.
+	 */
 	public void setViewResolver(ViewResolver viewResolver) {
 		this.viewResolver =  viewResolver;
 	}
 
-	private String completeViewName(String viewName) {
-
-		if(viewResolver!=null) {
-
-			if (viewResolver.prefix() != null) viewName = viewResolver.prefix() + viewName;
-
-			if (viewResolver.suffix() != null) viewName = viewName + viewResolver.suffix();
-
-		}
-
-		return viewName;
-	}
-
 	@Override
 	public void render(Request request, Response response) {
 		if(modelMap!=null) {
-			for (String key : modelMap.keySet()) {
-				request.attribute(key, modelMap.get(key));
+			for (Map.Entry<String, Object> entry : modelMap.entrySet()) {
+				request.attribute(entry.getKey(), entry.getValue());
 			}
 		}
 
-		request.dispatcher(completeViewName(viewName)).forward(request, response);
+		if(request.views!=null) {
+			request.views.get(viewName, viewResolver, request).forward(request, response);
+		} else {
+			request.dispatcher(Views.path(viewName, viewResolver)).forward(request, response);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,292 @@
+package com.github.zerh.servletio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Sessions kept in a memory mapped file, so they survive a restart of the
+ * node. The file is an array of fixed size slots, one per session, holding
+ * its id, timestamps and attributes encoded with {@link SessionCodec}. The
+ * id to slot index is rebuilt from the file on open; lookups go through it
+ * and lock only the stripe of the slot they read.
+ * <p>
+ * Each request works on its own decoded copy of the session, so when
+ * concurrent requests of a session change it the last one saved wins.
+ * Attributes must be values the codec supports and fit in a slot.
+ */
+public final class MappedSessionStore implements SessionStore, Closeable {
+
+    private static final int MAGIC = 0x53494f53;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER = 32;
+
+    private static final int MAX_ID_LENGTH = 64;
+
+    // slot layout
+    private static final int STATE = 0;
+    private static final int ID_LENGTH = 1;
+    private static final int ID = 2;
+    private static final int CREATION_TIME = ID + MAX_ID_LENGTH;
+    private static final int LAST_ACCESSED_TIME = CREATION_TIME + 8;
+    private static final int MAX_INACTIVE_INTERVAL = LAST_ACCESSED_TIME + 8;
+    private static final int DATA_LENGTH = MAX_INACTIVE_INTERVAL + 4;
+    private static final int DATA = DATA_LENGTH + 4;
+
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+
+    private static final int STRIPES = 64;
+
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final int slotSize;
+
+    private final Map<String, Integer> index = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentLinkedQueue<Integer> free = new ConcurrentLinkedQueue<Integer>();
+    private final Object[] locks = new Object[STRIPES];
+
+    /**
+     * Opens the file with 16384 slots of 4 KB, creating it if needed.
+     */
+    public MappedSessionStore(Path file) throws IOException {
+        this(file, 16384, 4096);
+    }
+
+    /**
+     * @param slots
+     *            the maximum number of sessions
+     * @param slotSize
+     *            the maximum size of a session in bytes, its attributes
+     *            taking all but 90 of them
+     * @throws IOException
+     *             if the file cannot be mapped or was created with another
+     *             number or size of slots
+     */
+    public MappedSessionStore(Path file, int slots, int slotSize) throws IOException {
+        if (slotSize <= DATA) throw new IllegalArgumentException("slot size must be larger than " + DATA);
+        if (slots <= 0 || FILE_HEADER + (long) slots * slotSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("the file must hold from 1 slot to 2 GB");
+
+        this.slots = slots;
+        this.slotSize = slotSize;
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new Object();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+
+            boolean created = channel.size() == 0;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER + (long) slots * slotSize);
+
+            if (created) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, slots);
+                buffer.putInt(12, slotSize);
+            } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != slots
+                    || buffer.getInt(12) != slotSize) {
+                throw new IOException(file + " is not a session file of " + slots + " slots of " + slotSize + " bytes");
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        for (int slot = 0; slot < slots; slot++) {
+            int offset = offset(slot);
+            if (buffer.get(offset + STATE) == USED && !isExpired(offset, now)) index.put(readId(offset), slot);
+            else free.add(slot);
+        }
+    }
+
+    private int offset(int slot) {
+        return FILE_HEADER + slot * slotSize;
+    }
+
+    private Object lock(int slot) {
+        return locks[slot & (STRIPES - 1)];
+    }
+
+    private boolean isExpired(int offset, long now) {
+        int maxInactiveInterval = buffer.getInt(offset + MAX_INACTIVE_INTERVAL);
+        return maxInactiveInterval >= 0 && now - buffer.getLong(offset + LAST_ACCESSED_TIME) > maxInactiveInterval * 1000L;
+    }
+
+    /**
+     * @return a view of the mapping positioned at the offset. The casts keep
+     *         the Java 8 signatures of duplicate() and position(), which
+     *         later JDKs override with covariant returns.
+     */
+    private ByteBuffer at(int offset) {
+        ByteBuffer view = ((ByteBuffer) buffer).duplicate();
+        ((Buffer) view).position(offset);
+        return view;
+    }
+
+    private String readId(int offset) {
+        byte[] id = new byte[buffer.get(offset + ID_LENGTH)];
+        at(offset + ID).get(id);
+        return new String(id, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean holds(int offset, String id) {
+        return buffer.get(offset + STATE) == USED && readId(offset).equals(id);
+    }
+
+    @Override
+    public SessionData get(String id) {
+        Integer slot = index.get(id);
+        if (slot == null) return null;
+
+        int offset = offset(slot);
+        byte[] data;
+        long creationTime;
+        long lastAccessedTime;
+        int maxInactiveInterval;
+
+        synchronized (lock(slot)) {
+            if (!holds(offset, id)) return null;
+
+            creationTime = buffer.getLong(offset + CREATION_TIME);
+            lastAccessedTime = buffer.getLong(offset + LAST_ACCESSED_TIME);
+            maxInactiveInterval = buffer.getInt(offset + MAX_INACTIVE_INTERVAL);
+            data = new byte[buffer.getInt(offset + DATA_LENGTH)];
+            at(offset + DATA).get(data);
+        }
+
+        SessionData session = new SessionData(id, creationTime, lastAccessedTime, maxInactiveInterval,
+                SessionCodec.decode(data, 0, data.length));
+        if (session.isExpired(System.currentTimeMillis())) {
+            remove(id);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the session does not fit in a slot or holds values the
+     *             codec does not support
+     * @throws IllegalStateException
+     *             if every slot holds a live session
+     */
+    @Override
+    public void put(SessionData session) {
+        String id = session.id();
+        byte[] idBytes = id.getBytes(StandardCharsets.ISO_8859_1);
+        if (idBytes.length > MAX_ID_LENGTH) throw new IllegalArgumentException("session id longer than " + MAX_ID_LENGTH);
+
+        byte[] data = SessionCodec.encode(session.attributes());
+        if (DATA + data.length > slotSize)
+            throw new IllegalArgumentException("session " + id + " does not fit in a slot of " + slotSize + " bytes");
+
+        // a remove or eviction can free the slot between the lookup and the
+        // lock, and another session be given it: write only while the index
+        // still maps the id to the slot, look it up again otherwise
+        while (true) {
+            Integer slot = index.get(id);
+            if (slot == null) {
+                Integer allocated = allocate();
+                slot = index.putIfAbsent(id, allocated);
+                if (slot == null) slot = allocated;
+                else free.add(allocated);
+            }
+
+            int offset = offset(slot);
+            synchronized (lock(slot)) {
+                if (!slot.equals(index.get(id))) continue;
+
+                buffer.put(offset + STATE, FREE);
+                buffer.put(offset + ID_LENGTH, (byte) idBytes.length);
+                at(offset + ID).put(idBytes);
+                buffer.putLong(offset + CREATION_TIME, session.creationTime());
+                buffer.putLong(offset + LAST_ACCESSED_TIME, session.lastAccessedTime());
+                buffer.putInt(offset + MAX_INACTIVE_INTERVAL, session.maxInactiveInterval());
+                buffer.putInt(offset + DATA_LENGTH, data.length);
+                at(offset + DATA).put(data);
+                buffer.put(offset + STATE, USED);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes the access time in place, the attributes are left as they are.
+     */
+    @Override
+    public void touch(SessionData session) {
+        Integer slot = index.get(session.id());
+        if (slot == null) {
+            put(session);
+            return;
+        }
+
+        int offset = offset(slot);
+        synchronized (lock(slot)) {
+            if (holds(offset, session.id())) buffer.putLong(offset + LAST_ACCESSED_TIME, session.lastAccessedTime());
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        Integer slot = index.remove(id);
+        if (slot != null) release(slot);
+    }
+
+    /**
+     * Marks the slot free, once the index no longer maps an id to it.
+     */
+    private void release(Integer slot) {
+        synchronized (lock(slot)) {
+            buffer.put(offset(slot) + STATE, FREE);
+        }
+        free.add(slot);
+    }
+
+    private Integer allocate() {
+        Integer slot = free.poll();
+        if (slot == null) {
+            evictIdle();
+            slot = free.poll();
+        }
+        if (slot == null) throw new IllegalStateException("session store full, " + slots + " live sessions");
+        return slot;
+    }
+
+    /**
+     * Frees the slots of the expired sessions.
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Integer> entry : index.entrySet()) {
+            boolean expired;
+            synchronized (lock(entry.getValue())) {
+                expired = isExpired(offset(entry.getValue()), now);
+            }
+            if (expired && index.remove(entry.getKey(), entry.getValue())) release(entry.getValue());
+        }
+    }
+
+    /**
+     * @return the number of sessions
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Writes the changes to the file.
+     */
+    @Override
+    public void close() {
+        buffer.force();
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.zerh.servletio;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sessions kept in the heap of this node. They are spread over shards by
+ * id, each a concurrent map, so lookups take no lock and sessions idle for
+ * longer than their max inactive interval are evicted shard by shard, every
+ * so many writes, instead of by a background thread.
+ */
+public final class MemorySessionStore implements SessionStore {
+
+    /**
+     * Writes to a shard between two sweeps of its idle sessions.
+     */
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final Shard[] shards;
+    private final int mask;
+
+    public MemorySessionStore() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param shards
+     *            rounded up to a power of two
+     */
+    public MemorySessionStore(int shards) {
+        int n = Integer.highestOneBit(Math.max(shards, 1) - 1) << 1;
+        if (n <= 0) n = 1;
+        this.shards = new Shard[n];
+        for (int i = 0; i < n; i++)
+            this.shards[i] = new Shard();
+        mask = n - 1;
+    }
+
+    private Shard shardOf(String id) {
+        int h = id.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    @Override
+    public SessionData get(String id) {
+        Shard shard = shardOf(id);
+        SessionData session = shard.sessions.get(id);
+        if (session != null && session.isExpired(System.currentTimeMillis())) {
+            shard.sessions.remove(id, session);
+            return null;
+        }
+        return session;
+    }
+
+    @Override
+    public void put(SessionData session) {
+        Shard shard = shardOf(session.id());
+        shard.sessions.put(session.id(), session);
+        shard.written();
+    }
+
+    /**
+     * Nothing to save, the session is the stored instance.
+     */
+    @Override
+    public void touch(SessionData session) {
+        shardOf(session.id()).written();
+    }
+
+    @Override
+    public void remove(String id) {
+        shardOf(id).sessions.remove(id);
+    }
+
+    /**
+     * @return the number of sessions, expired ones not evicted yet included
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards)
+            size += shard.sessions.size();
+        return size;
+    }
+
+    /**
+     * Evicts the expired sessions of every shard now.
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Shard shard : shards)
+            shard.sweep(now);
+    }
+
+    private static final class Shard {
+
+        final ConcurrentHashMap<String, SessionData> sessions = new ConcurrentHashMap<String, SessionData>();
+        final AtomicInteger writes = new AtomicInteger();
+
+        void written() {
+            if ((writes.incrementAndGet() & (SWEEP_INTERVAL - 1)) == 0) sweep(System.currentTimeMillis());
+        }
+
+        void sweep(long now) {
+            Iterator<SessionData> it = sessions.values().iterator();
+            while (it.hasNext())
+                if (it.next().isExpired(now)) it.remove();
+        }
+    }
+}
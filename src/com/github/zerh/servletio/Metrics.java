@@ -0,0 +1,337 @@
+package com.github.zerh.servletio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics of a servlet: a latency histogram, status class counts and
+ * exception counts per route template, plus 404s and requests in flight.
+ * <p>
+ * Recording only increments {@link LongAdder}s found through the matched
+ * {@link Route}, so the hot path takes no lock and does no lookup. Reads go
+ * through {@link #snapshot()} or {@link #prometheus()}.
+ */
+public final class Metrics {
+
+    /**
+     * Upper bounds of the latency buckets, in milliseconds.
+     */
+    static final double[] BUCKETS_MS = { 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    private static final long[] BUCKETS_NANOS = new long[BUCKETS_MS.length];
+
+    static {
+        for (int i = 0; i < BUCKETS_MS.length; i++)
+            BUCKETS_NANOS[i] = (long) (BUCKETS_MS[i] * 1000000);
+    }
+
+    private static final String[] STATUS_CLASSES = { "1xx", "2xx", "3xx", "4xx", "5xx" };
+
+    private final List<RouteMetrics> routes = new CopyOnWriteArrayList<RouteMetrics>();
+
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder notFound = new LongAdder();
+    private final LongAdder exceptions = new LongAdder();
+    private final LongAdder[] statuses = adders(STATUS_CLASSES.length);
+
+    Metrics() {
+    }
+
+    private static LongAdder[] adders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    RouteMetrics register(String method, String route) {
+        RouteMetrics metrics = new RouteMetrics(method, route);
+        routes.add(metrics);
+        return metrics;
+    }
+
+    void started() {
+        inFlight.increment();
+    }
+
+    /**
+     * Records a finished request.
+     *
+     * @param route
+     *            the metrics of the matched route, or null
+     */
+    void finished(RouteMetrics route, int status, long nanos) {
+        inFlight.decrement();
+
+        int statusClass = status / 100 - 1;
+        if (statusClass >= 0 && statusClass < STATUS_CLASSES.length) statuses[statusClass].increment();
+
+        if (route == null) {
+            if (status == 404) notFound.increment();
+            return;
+        }
+
+        route.count.increment();
+        route.nanos.add(nanos);
+
+        int bucket = 0;
+        while (bucket < BUCKETS_NANOS.length && nanos > BUCKETS_NANOS[bucket]) bucket++;
+        route.buckets[bucket].increment();
+
+        if (statusClass >= 0 && statusClass < STATUS_CLASSES.length) route.statuses[statusClass].increment();
+    }
+
+    void exception(RouteMetrics route) {
+        exceptions.increment();
+        if (route != null) route.exceptions.increment();
+    }
+
+    /**
+     * @return a copy of the current values
+     */
+    public Snapshot snapshot() {
+        List<RouteSnapshot> routeSnapshots = new ArrayList<RouteSnapshot>(routes.size());
+        for (RouteMetrics route : routes)
+            routeSnapshots.add(new RouteSnapshot(route));
+
+        return new Snapshot(Collections.unmodifiableList(routeSnapshots), inFlight.sum(), notFound.sum(),
+                exceptions.sum(), sums(statuses));
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++)
+            sums[i] = adders[i].sum();
+        return sums;
+    }
+
+    /**
+     * @return the metrics in the Prometheus text exposition format
+     */
+    public String prometheus() {
+        Snapshot snapshot = snapshot();
+        StringBuilder out = new StringBuilder(1024 + snapshot.routes.size() * 1536);
+
+        out.append("# HELP servletio_request_duration_seconds Latency of the requests by route.\n");
+        out.append("# TYPE servletio_request_duration_seconds histogram\n");
+        for (RouteSnapshot route : snapshot.routes) {
+            long cumulative = 0;
+            for (int i = 0; i < route.buckets.length; i++) {
+                cumulative += route.buckets[i];
+                String le = i < BUCKETS_MS.length ? Double.toString(BUCKETS_MS[i] / 1000) : "+Inf";
+                metric(out, "servletio_request_duration_seconds_bucket", route, "le", le).append(cumulative).append('\n');
+            }
+            metric(out, "servletio_request_duration_seconds_sum", route, null, null)
+                    .append(route.nanos / 1e9).append('\n');
+            metric(out, "servletio_request_duration_seconds_count", route, null, null)
+                    .append(route.count).append('\n');
+        }
+
+        out.append("# HELP servletio_route_requests_total Requests by route and status class.\n");
+        out.append("# TYPE servletio_route_requests_total counter\n");
+        for (RouteSnapshot route : snapshot.routes) {
+            for (int i = 0; i < STATUS_CLASSES.length; i++) {
+                if (route.statuses[i] == 0) continue;
+                metric(out, "servletio_route_requests_total", route, "status", STATUS_CLASSES[i])
+                        .append(route.statuses[i]).append('\n');
+            }
+        }
+
+        out.append("# HELP servletio_route_exceptions_total Exceptions thrown by the actions and filters of a route.\n");
+        out.append("# TYPE servletio_route_exceptions_total counter\n");
+        for (RouteSnapshot route : snapshot.routes)
+            metric(out, "servletio_route_exceptions_total", route, null, null).append(route.exceptions).append('\n');
+
+        out.append("# HELP servletio_responses_total Responses by status class.\n");
+        out.append("# TYPE servletio_responses_total counter\n");
+        for (int i = 0; i < STATUS_CLASSES.length; i++) {
+            out.append("servletio_responses_total{status=\"").append(STATUS_CLASSES[i]).append("\"} ")
+                    .append(snapshot.statuses[i]).append('\n');
+        }
+
+        out.append("# HELP servletio_not_found_total Requests matching no route.\n");
+        out.append("# TYPE servletio_not_found_total counter\n");
+        out.append("servletio_not_found_total ").append(snapshot.notFound).append('\n');
+
+        out.append("# HELP servletio_exceptions_total Exceptions thrown by actions and filters.\n");
+        out.append("# TYPE servletio_exceptions_total counter\n");
+        out.append("servletio_exceptions_total ").append(snapshot.exceptions).append('\n');
+
+        out.append("# HELP servletio_requests_in_flight Requests being processed.\n");
+        out.append("# TYPE servletio_requests_in_flight gauge\n");
+        out.append("servletio_requests_in_flight ").append(snapshot.inFlight).append('\n');
+
+        return out.toString();
+    }
+
+    private static StringBuilder metric(StringBuilder out, String name, RouteSnapshot route, String label,
+            String value) {
+
+        out.append(name).append("{method=\"").append(route.method).append("\",route=\"");
+        escape(out, route.route);
+        out.append('"');
+        if (label != null) out.append(',').append(label).append("=\"").append(value).append('"');
+        return out.append("} ");
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') out.append('\\').append(c);
+            else if (c == '\n') out.append("\\n");
+            else out.append(c);
+        }
+    }
+
+    /**
+     * Live counters of a route, referenced by its {@link Route}.
+     */
+    static final class RouteMetrics {
+
+        final String method;
+        final String route;
+
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder exceptions = new LongAdder();
+        final LongAdder[] buckets = adders(BUCKETS_NANOS.length + 1);
+        final LongAdder[] statuses = adders(STATUS_CLASSES.length);
+
+        RouteMetrics(String method, String route) {
+            this.method = method;
+            this.route = route;
+        }
+    }
+
+    /**
+     * Metrics of the whole servlet at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final List<RouteSnapshot> routes;
+        private final long inFlight;
+        private final long notFound;
+        private final long exceptions;
+        private final long[] statuses;
+
+        Snapshot(List<RouteSnapshot> routes, long inFlight, long notFound, long exceptions, long[] statuses) {
+            this.routes = routes;
+            this.inFlight = inFlight;
+            this.notFound = notFound;
+            this.exceptions = exceptions;
+            this.statuses = statuses;
+        }
+
+        public List<RouteSnapshot> routes() {
+            return routes;
+        }
+
+        public long inFlight() {
+            return inFlight;
+        }
+
+        /**
+         * @return the requests that matched no route
+         */
+        public long notFound() {
+            return notFound;
+        }
+
+        public long exceptions() {
+            return exceptions;
+        }
+
+        /**
+         * @return the responses with a status of the class, 1 to 5
+         */
+        public long responses(int statusClass) {
+            return statuses[statusClass - 1];
+        }
+    }
+
+    /**
+     * Metrics of one route at one point in time.
+     */
+    public static final class RouteSnapshot {
+
+        private final String method;
+        private final String route;
+        private final long count;
+        private final long nanos;
+        private final long exceptions;
+        private final long[] buckets;
+        private final long[] statuses;
+
+        RouteSnapshot(RouteMetrics metrics) {
+            method = metrics.method;
+            route = metrics.route;
+            buckets = sums(metrics.buckets);
+            statuses = sums(metrics.statuses);
+            exceptions = metrics.exceptions.sum();
+            nanos = metrics.nanos.sum();
+
+            long total = 0;
+            for (long b : buckets)
+                total += b;
+            count = total;
+        }
+
+        public String method() {
+            return method;
+        }
+
+        /**
+         * @return the route template, like <code>/edit/:id</code>
+         */
+        public String route() {
+            return route;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long exceptions() {
+            return exceptions;
+        }
+
+        /**
+         * @return the responses with a status of the class, 1 to 5
+         */
+        public long responses(int statusClass) {
+            return statuses[statusClass - 1];
+        }
+
+        public double meanMillis() {
+            return count == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(nanos) / count / 1000;
+        }
+
+        /**
+         * @return the upper bound, in milliseconds, of the bucket holding the
+         *         quantile (0 to 1), or infinity if it is past the last bucket
+         */
+        public double quantileMillis(double quantile) {
+            if (count == 0) return 0;
+
+            long rank = (long) Math.ceil(quantile * count);
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i];
+                if (cumulative >= rank) return i < BUCKETS_MS.length ? BUCKETS_MS[i] : Double.POSITIVE_INFINITY;
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * @return the count of each latency bucket, the last one being past
+         *         the highest bound
+         */
+        public long[] buckets() {
+            return buckets.clone();
+        }
+    }
+}
@@ -0,0 +1,542 @@
+package com.github.zerh.servletio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.github.zerh.servletio.utils.IOUtils;
+
+/**
+ * A <code>multipart/form-data</code> body read as it arrives, one part
+ * after the other, in a single pass over one buffer:
+ *
+ * <pre>
+ * try (Multipart multipart = req.multipart().maxPartSize(100 &lt;&lt; 20)) {
+ *     Multipart.Part part;
+ *     while ((part = multipart.next()) != null) {
+ *         if (part.isFile()) part.digest("SHA-256").transferTo(dir.resolve(id));
+ *         else fields.put(part.name(), part.text());
+ *     }
+ * }
+ * </pre>
+ *
+ * Nothing is buffered by the container or written to a temporary file, so
+ * the container must not parse the body first: do not read the parameters
+ * or parts of the raw request before. A part exceeding its quota, or a body
+ * exceeding the total quota, fails with {@link PayloadTooLargeException}
+ * and the action gets a 413.
+ */
+public final class Multipart implements Closeable {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    /**
+     * Largest size of the headers of one part.
+     */
+    private static final int MAX_HEADERS_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final int[] shift = new int[256];
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    private long maxPartSize = -1;
+    private long maxTotalSize = -1;
+    private long total;
+
+    private Part current;
+    private boolean partDone;
+    private boolean finished;
+
+    Multipart(InputStream in, String boundary) {
+        this.in = in;
+
+        byte[] b = boundary.getBytes(StandardCharsets.ISO_8859_1);
+        delimiter = new byte[b.length + 4];
+        delimiter[0] = '\r';
+        delimiter[1] = '\n';
+        delimiter[2] = '-';
+        delimiter[3] = '-';
+        System.arraycopy(b, 0, delimiter, 4, b.length);
+
+        int last = delimiter.length - 1;
+        for (int i = 0; i < shift.length; i++)
+            shift[i] = delimiter.length;
+        for (int i = 0; i < last; i++)
+            shift[delimiter[i] & 0xff] = last - i;
+
+        buf = IOUtils.acquire();
+
+        // the first boundary may start the body, without a CRLF before it
+        buf[0] = '\r';
+        buf[1] = '\n';
+        limit = 2;
+    }
+
+    /**
+     * @return the boundary of a <code>multipart/*</code> content type, or
+     *         null
+     */
+    static String boundary(String contentType) {
+        if (contentType == null || !contentType.trim().toLowerCase(Locale.ROOT).startsWith("multipart/")) return null;
+
+        String boundary = parameter(contentType, "boundary");
+        return boundary != null && !boundary.isEmpty() && boundary.length() <= 70 ? boundary : null;
+    }
+
+    /**
+     * Fails a part larger than the size with a
+     * {@link PayloadTooLargeException}.
+     *
+     * @param maxPartSize
+     *            in bytes, -1 for no limit
+     */
+    public Multipart maxPartSize(long maxPartSize) {
+        this.maxPartSize = maxPartSize;
+        return this;
+    }
+
+    /**
+     * Fails a body larger than the size with a
+     * {@link PayloadTooLargeException}, besides the <code>maxBodySize</code>
+     * of the servlet.
+     *
+     * @param maxTotalSize
+     *            in bytes, -1 for no limit
+     */
+    public Multipart maxTotalSize(long maxTotalSize) {
+        this.maxTotalSize = maxTotalSize;
+        return this;
+    }
+
+    /**
+     * Skips what is left of the current part and reads the headers of the
+     * next one.
+     *
+     * @return the next part, or null after the last one
+     */
+    public Part next() throws IOException {
+        if (finished) return null;
+
+        // the rest of the current part, or the preamble
+        int n;
+        while ((n = chunk()) >= 0) pos += n;
+        current = null;
+
+        require(2);
+        if (buf[pos] == '-' && buf[pos + 1] == '-') {
+            finished = true;
+            return null;
+        }
+
+        // transport padding, then the CRLF ending the boundary line
+        while (true) {
+            require(1);
+            if (buf[pos] != ' ' && buf[pos] != '\t') break;
+            pos++;
+        }
+        require(2);
+        if (buf[pos] != '\r' || buf[pos + 1] != '\n') throw malformed("boundary not followed by CRLF");
+        pos += 2;
+
+        current = new Part(readHeaders());
+        partDone = false;
+        return current;
+    }
+
+    /**
+     * Returns the buffer to the pool. The body is not read further.
+     */
+    @Override
+    public void close() {
+        if (buf != null) {
+            IOUtils.release(buf);
+            buf = null;
+        }
+        finished = true;
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        int size = 0;
+
+        while (true) {
+            int end = indexOf(CRLF, pos, limit);
+            while (end < 0) {
+                if (limit - pos > MAX_HEADERS_SIZE - size) throw malformed("part headers too large");
+                if (!fill()) throw malformed("unexpected end in part headers");
+                end = indexOf(CRLF, pos, limit);
+            }
+
+            size += end - pos + 2;
+            if (size > MAX_HEADERS_SIZE) throw malformed("part headers too large");
+
+            if (end == pos) {
+                pos += 2;
+                return headers;
+            }
+
+            String line = new String(buf, pos, end - pos, StandardCharsets.UTF_8);
+            pos = end + 2;
+
+            int colon = line.indexOf(':');
+            if (colon > 0) headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+    }
+
+    /**
+     * Makes the bytes of the current part following <code>pos</code>
+     * available in the buffer.
+     *
+     * @return how many of them can be consumed, or -1 once the delimiter
+     *         ending the part is reached and consumed
+     */
+    private int chunk() throws IOException {
+        if (partDone) return -1;
+
+        while (true) {
+            int found = indexOf(delimiter, pos, limit);
+            if (found == pos) {
+                pos += delimiter.length;
+                partDone = true;
+                if (current != null && current.digest != null) current.checksum = current.digest.digest();
+                return -1;
+            }
+            if (found > pos) return found - pos;
+
+            // bytes that cannot be the start of a delimiter
+            int safe = limit - pos - (delimiter.length - 1);
+            if (safe > 0) return safe;
+
+            if (!fill()) throw malformed("missing closing boundary");
+        }
+    }
+
+    private void require(int n) throws IOException {
+        while (limit - pos < n)
+            if (!fill()) throw malformed("unexpected end");
+    }
+
+    /**
+     * Compacts the buffer and reads more of the body into it.
+     *
+     * @return false at the end of the body
+     */
+    private boolean fill() throws IOException {
+        if (buf == null) throw new IOException("multipart closed");
+
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) return false;
+
+        limit += n;
+        total += n;
+        if (maxTotalSize >= 0 && total > maxTotalSize) throw new PayloadTooLargeException(maxTotalSize);
+        return true;
+    }
+
+    /**
+     * Horspool search of the pattern in <code>buf[from, to)</code>.
+     */
+    private int indexOf(byte[] pattern, int from, int to) {
+        int last = pattern.length - 1;
+        for (int i = from; i + last < to;) {
+            int j = last;
+            while (j >= 0 && buf[i + j] == pattern[j]) j--;
+            if (j < 0) return i;
+            i += pattern == delimiter ? shift[buf[i + last] & 0xff] : 1;
+        }
+        return -1;
+    }
+
+    private static IOException malformed(String reason) {
+        return new IOException("malformed multipart body: " + reason);
+    }
+
+    /**
+     * @return the value of a header parameter, unquoted, or null. An
+     *         RFC 5987 <code>name*</code> value takes precedence.
+     */
+    static String parameter(String header, String name) {
+        String plain = null;
+        String extended = null;
+
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            int start = i + 1;
+            int eq = header.indexOf('=', start);
+            if (eq < 0) break;
+
+            String key = header.substring(start, eq).trim();
+            int valueStart = eq + 1;
+            while (valueStart < header.length() && header.charAt(valueStart) == ' ') valueStart++;
+
+            String value;
+            if (valueStart < header.length() && header.charAt(valueStart) == '"') {
+                StringBuilder quoted = new StringBuilder();
+                int j = valueStart + 1;
+                for (; j < header.length() && header.charAt(j) != '"'; j++) {
+                    char c = header.charAt(j);
+                    // browsers send Windows paths unescaped in quoted file names
+                    if (c == '\\' && j + 1 < header.length() && (header.charAt(j + 1) == '"' || header.charAt(j + 1) == '\\'))
+                        c = header.charAt(++j);
+                    quoted.append(c);
+                }
+                value = quoted.toString();
+                i = header.indexOf(';', j);
+            } else {
+                i = header.indexOf(';', valueStart);
+                value = header.substring(valueStart, i < 0 ? header.length() : i).trim();
+            }
+
+            if (key.equalsIgnoreCase(name)) plain = value;
+            else if (key.equalsIgnoreCase(name + "*")) extended = decodeExtended(value);
+        }
+
+        return extended != null ? extended : plain;
+    }
+
+    /**
+     * Decodes <code>charset'language'percent-encoded</code>.
+     */
+    private static String decodeExtended(String value) {
+        int first = value.indexOf('\'');
+        int second = first < 0 ? -1 : value.indexOf('\'', first + 1);
+        if (second < 0) return null;
+
+        try {
+            String encoded = value.substring(second + 1).replace("+", "%2B");
+            return URLDecoder.decode(encoded, value.substring(0, first));
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Receives the bytes of a part as they are read. The buffer is reused
+     * once the call returns.
+     */
+    public interface Sink {
+        void write(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    /**
+     * A part of the body. Its content can be read once, and only until
+     * {@link Multipart#next()} is called again.
+     */
+    public final class Part {
+
+        private final Map<String, String> headers;
+        private final String name;
+        private final String fileName;
+        private MessageDigest digest;
+        private byte[] checksum;
+        private long size;
+
+        Part(Map<String, String> headers) {
+            this.headers = Collections.unmodifiableMap(headers);
+
+            String disposition = headers.get("Content-Disposition");
+            name = disposition != null ? parameter(disposition, "name") : null;
+            fileName = disposition != null ? parameter(disposition, "filename") : null;
+        }
+
+        /**
+         * @return the form field name
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return the file name sent by the client, without directories, or
+         *         null if the part is not a file. It is not safe to use as a
+         *         path as is.
+         */
+        public String fileName() {
+            if (fileName == null) return null;
+            int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+            return fileName.substring(slash + 1);
+        }
+
+        public boolean isFile() {
+            return fileName != null;
+        }
+
+        public String contentType() {
+            return headers.get("Content-Type");
+        }
+
+        public String header(String name) {
+            return headers.get(name);
+        }
+
+        public Map<String, String> headers() {
+            return headers;
+        }
+
+        /**
+         * @return the bytes of the part read so far
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Computes a checksum of the content while it is read. Call it
+         * before reading.
+         *
+         * @param algorithm
+         *            a <code>MessageDigest</code> algorithm, like
+         *            <code>SHA-256</code>
+         */
+        public Part digest(String algorithm) {
+            if (size > 0) throw new IllegalStateException("part already being read");
+            try {
+                digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(e);
+            }
+            return this;
+        }
+
+        /**
+         * @return the lower case hex checksum of the content, once the part
+         *         has been read to its end
+         */
+        public String checksum() {
+            if (digest == null) throw new IllegalStateException("no digest requested");
+            if (checksum == null) throw new IllegalStateException("part not read to its end");
+
+            char[] hex = new char[checksum.length * 2];
+            for (int i = 0; i < checksum.length; i++) {
+                hex[i * 2] = Character.forDigit((checksum[i] >> 4) & 0xf, 16);
+                hex[i * 2 + 1] = Character.forDigit(checksum[i] & 0xf, 16);
+            }
+            return new String(hex);
+        }
+
+        /**
+         * Hands the content to the sink straight from the read buffer.
+         *
+         * @return the number of bytes
+         */
+        public long transferTo(Sink sink) throws IOException {
+            checkCurrent();
+            long start = size;
+            int n;
+            while ((n = chunk()) >= 0) {
+                consume(n);
+                sink.write(buf, pos, n);
+                pos += n;
+            }
+            return size - start;
+        }
+
+        public long transferTo(WritableByteChannel channel) throws IOException {
+            return transferTo((buffer, offset, length) -> {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, offset, length);
+                while (bytes.hasRemaining()) channel.write(bytes);
+            });
+        }
+
+        public long transferTo(OutputStream out) throws IOException {
+            return transferTo(out::write);
+        }
+
+        /**
+         * Writes the content to the file, replacing it. The file is deleted
+         * if the transfer fails, over quota for instance.
+         */
+        public long transferTo(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                return transferTo(channel);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        }
+
+        /**
+         * @return the content decoded with the charset of the part, UTF-8
+         *         if it declares none
+         */
+        public String text() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            transferTo(out);
+
+            String type = contentType();
+            String charset = type != null ? parameter(type, "charset") : null;
+            try {
+                return out.toString(charset != null ? Charset.forName(charset).name() : "UTF-8");
+            } catch (IllegalArgumentException e) {
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+
+        /**
+         * @return the content as a stream, valid until the next part
+         */
+        public InputStream stream() {
+            return new InputStream() {
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    checkCurrent();
+                    if (len == 0) return 0;
+
+                    int n = chunk();
+                    if (n < 0) return -1;
+
+                    n = Math.min(n, len);
+                    consume(n);
+                    System.arraycopy(buf, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+            };
+        }
+
+        private void consume(int n) throws PayloadTooLargeException {
+            size += n;
+            if (maxPartSize >= 0 && size > maxPartSize) throw new PayloadTooLargeException(maxPartSize);
+            if (digest != null) digest.update(buf, pos, n);
+        }
+
+        private void checkCurrent() {
+            if (current != this) throw new IllegalStateException("not the current part");
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.zerh.servletio;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request body is larger than the allowed maximum. An action
+ * failing with it gets a 413 response.
+ */
+public class PayloadTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final long maxSize;
+
+    public PayloadTooLargeException(long maxSize) {
+        super("request body larger than " + maxSize + " bytes");
+        this.maxSize = maxSize;
+    }
+}
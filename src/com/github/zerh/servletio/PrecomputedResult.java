@@ -0,0 +1,186 @@
+package com.github.zerh.servletio;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A {@link Result} frozen at build time: the body is encoded once and the
+ * headers are kept in arrays, so rendering allocates nothing and the
+ * instance can be shared across threads. Every <code>with</code> and
+ * <code>as</code> method throws {@link UnsupportedOperationException}.
+ */
+final class PrecomputedResult extends Result {
+
+    private final int statusCode;
+    private final byte[] body;
+    private final String type;
+    private final String location;
+    private final String tag;
+    private final long lastModified;
+    private final Cookie[] cookieArray;
+
+    private final String[] addedNames;
+    private final String[] addedValues;
+    private final String[] setNames;
+    private final String[] setValues;
+    private final String[] dateNames;
+    private final long[] dateValues;
+
+    PrecomputedResult(Result result) {
+        super(null);
+
+        if (result.file != null || result.inputStream != null || result.channel != null)
+            throw new IllegalArgumentException("a streamed result cannot be precomputed");
+
+        statusCode = result.status;
+        location = result.redirect;
+        body = result.json ? JsonWriter.toBytes(result.jsonValue)
+                : result.content != null ? result.content.getBytes(StandardCharsets.UTF_8) : null;
+        tag = result.etag != null ? result.etag
+                : result.hashETag && body != null ? ETags.of(ETags.digest().digest(body)) : null;
+        Long modified = result.dateHeader.get("Last-Modified");
+        lastModified = modified != null ? modified : -1;
+        type = body != null ? withCharset(result.contentType != null ? result.contentType : "text/plain") : null;
+
+        int cookieCount = (result.cookies != null ? result.cookies.length : 0)
+                + (result.discardingCookies != null ? result.discardingCookies.length : 0);
+        cookieArray = new Cookie[cookieCount];
+        int i = 0;
+        if (result.cookies != null)
+            for (Cookie cookie : result.cookies) cookieArray[i++] = (Cookie) cookie.clone();
+        if (result.discardingCookies != null) {
+            for (Cookie cookie : result.discardingCookies) {
+                Cookie discarding = (Cookie) cookie.clone();
+                discarding.setMaxAge(0);
+                cookieArray[i++] = discarding;
+            }
+        }
+
+        addedNames = keys(result.header);
+        addedValues = values(result.header, addedNames);
+        setNames = keys(result.overwrittenHeader);
+        setValues = values(result.overwrittenHeader, setNames);
+
+        dateNames = keys(result.dateHeader);
+        dateValues = new long[dateNames.length];
+        for (int j = 0; j < dateNames.length; j++)
+            dateValues[j] = result.dateHeader.get(dateNames[j]);
+    }
+
+    private static String withCharset(String contentType) {
+        return contentType.toLowerCase(Locale.ROOT).contains("charset=") ? contentType : contentType + "; charset=UTF-8";
+    }
+
+    private static String[] keys(Map<String, ?> map) {
+        return map.keySet().toArray(new String[map.size()]);
+    }
+
+    private static String[] values(Map<String, String> map, String[] keys) {
+        String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            values[i] = map.get(keys[i]);
+        return values;
+    }
+
+    @Override
+    public void render(Request request, Response response) {
+        if (location != null) response.redirect(location);
+
+        for (Cookie cookie : cookieArray)
+            response.raw.addCookie(cookie);
+
+        response.status(statusCode);
+
+        for (int i = 0; i < addedNames.length; i++)
+            response.addHeader(addedNames[i], addedValues[i]);
+
+        for (int i = 0; i < setNames.length; i++)
+            response.setHeader(setNames[i], setValues[i]);
+
+        for (int i = 0; i < dateNames.length; i++)
+            response.setDateHeader(dateNames[i], dateValues[i]);
+
+        if (tag != null) {
+            response.setHeader("ETag", tag);
+            if (statusCode == HttpServletResponse.SC_OK && ETags.notModified(request.raw, tag, lastModified)) {
+                response.status(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+
+        if (body != null) response.send(body, type);
+    }
+
+    private static UnsupportedOperationException frozen() {
+        return new UnsupportedOperationException("precomputed results are immutable");
+    }
+
+    @Override
+    public Result withContentLength(long contentLength) {
+        throw frozen();
+    }
+
+    @Override
+    public Result withETag() {
+        throw frozen();
+    }
+
+    @Override
+    public Result withETag(String version) {
+        throw frozen();
+    }
+
+    @Override
+    public Result withStatus(int status) {
+        throw frozen();
+    }
+
+    @Override
+    public Result asHtml() {
+        throw frozen();
+    }
+
+    @Override
+    public Result asJson() {
+        throw frozen();
+    }
+
+    @Override
+    public Result asXml() {
+        throw frozen();
+    }
+
+    @Override
+    public Result as(String contentType) {
+        throw frozen();
+    }
+
+    @Override
+    public Result withCookies(Cookie... cookies) {
+        throw frozen();
+    }
+
+    @Override
+    public Result withDiscardingCookies(Cookie... discardingCookies) {
+        throw frozen();
+    }
+
+    @Override
+    public Result withHeader(String key, String value) {
+        throw frozen();
+    }
+
+    @Override
+    public Result withEditHeader(String key, String value) {
+        throw frozen();
+    }
+
+    @Override
+    public Result withDateHeader(String key, Number value) {
+        throw frozen();
+    }
+}
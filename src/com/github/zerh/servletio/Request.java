@@ -1,23 +1,32 @@
 package com.github.zerh.servletio;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.Locale;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.Part;
 
@@ -27,15 +36,12 @@ import com.github.zerh.servletio.utils.RouteUtils;
 public class Request {
 
 	private static final String USER_AGENT = "User-Agent";
+	private static final String CONTENT_ENCODING = "Content-Encoding";
 
 	public final HttpServletRequest raw;
 
-	public final String scheme;
 	public final String method;
 	public final String uri;
-	public final String url;
-	public final String ip;
-	public final String userAgent;
 	public final String pathInfo;
 	public final String protocol;
 	public final String servletPath;
@@ -44,47 +50,110 @@ public class Request {
 	public final int contentLength;
 
 	public final int port;
-	public final Cookie[] cookies;
-	public final Set<String> attributes;
-	public final Set<String> queryParams;
-	public final Set<String> headers;
 	public Collection<Part> parts;
 
 	private Session session;
 
+	/**
+	 * The sessions of the servlet when they are kept in a store, and the
+	 * response their cookie is added to.
+	 */
+	Sessions sessions;
+	HttpServletResponse rawResponse;
+
+	/**
+	 * The resolved views of the servlet, for {@link Jsp#render}.
+	 */
+	Views views;
+
+	/**
+	 * The templates of the servlet, for {@link Template#render}.
+	 */
+	Templates templates;
+
+	private String url;
+	private Cookie[] cookies;
+	private boolean cookiesRead;
+	private Set<String> queryParams;
+	private Set<String> headers;
+
+	/**
+	 * Maximum body size in bytes, -1 for no limit.
+	 */
+	long maxBodySize = -1;
+	private byte[] body;
+
 	Map<String, Integer> indexByTag = null;
+	RouteMatch match = null;
+
+	/**
+	 * <code>System.nanoTime()</code> when processing started.
+	 */
+	long started;
 
 	Request(HttpServletRequest request) {
 		raw = request;
-		scheme = request.getScheme();
 		method = request.getMethod();
 		port = request.getServerPort();
 		uri = request.getRequestURI();
-		url = request.getRequestURL().toString();
-		ip = request.getRemoteAddr();
-		userAgent = request.getHeader(USER_AGENT);
 		pathInfo = request.getPathInfo();
 		protocol = request.getProtocol();
 		servletPath = request.getServletPath();
 		contextPath = request.getContextPath();
 		contentType = request.getContentType();
 		contentLength = request.getContentLength();
-		queryParams = request.getParameterMap().keySet();
+	}
 
-		cookies = raw.getCookies();
-		attributes = attributes();
-		headers = headers();
+	public String scheme() {
+		return raw.getScheme();
+	}
+
+	/**
+	 * @return the reconstructed request URL, built on first use
+	 */
+	public String url() {
+		if (url == null) {
+			url = raw.getRequestURL().toString();
+		}
+		return url;
+	}
+
+	public String ip() {
+		return raw.getRemoteAddr();
+	}
+
+	public String userAgent() {
+		return raw.getHeader(USER_AGENT);
+	}
+
+	/**
+	 * @return the cookies sent with the request, read on first use
+	 */
+	public Cookie[] cookies() {
+		if (!cookiesRead) {
+			cookies = raw.getCookies();
+			cookiesRead = true;
+		}
+		return cookies;
+	}
+
+	/**
+	 * @return the names of the query and form parameters, read on first use
+	 */
+	public Set<String> queryParams() {
+		if (queryParams == null) {
+			queryParams = raw.getParameterMap().keySet();
+		}
+		return queryParams;
 	}
 
 	private String getFileName(Part part) {
 		String contentDisp = part.getHeader("content-disposition");
-		String[] tokens = contentDisp.split(";");
-		for (String token : tokens) {
-			if (token.trim().startsWith("filename")) {
-				return token.substring(token.indexOf("=") + 2, token.length() - 1);
-			}
-		}
-		return "";
+		String fileName = contentDisp != null ? Multipart.parameter(contentDisp, "filename") : null;
+		if (fileName == null) return "";
+
+		int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+		return fileName.substring(slash + 1);
 	}
 
 	private String defaultPath() {
@@ -113,19 +182,177 @@ public class Request {
 		}
 	}
 
+	/**
+	 * Checks the version the client holds, before building the response:
+	 *
+	 * <pre>
+	 * if (req.isNotModified(row.version())) return notModified(row.version());
+	 * </pre>
+	 *
+	 * @param version
+	 *            the current version of the resource, used as its ETag
+	 * @return true if the If-None-Match header of a GET matches the version
+	 */
+	public boolean isNotModified(String version) {
+		return ETags.notModified(raw, ETags.quote(version), -1);
+	}
+
+	/**
+	 * Like {@link #isNotModified(String)}, falling back to If-Modified-Since
+	 * when the client sent no If-None-Match.
+	 *
+	 * @param lastModified
+	 *            the modification time of the resource, or -1
+	 */
+	public boolean isNotModified(String version, long lastModified) {
+		return ETags.notModified(raw, version != null ? ETags.quote(version) : null, lastModified);
+	}
+
 	public Dispatcher dispatcher(String name) {
 		return new Dispatcher(raw.getRequestDispatcher(name));
 	}
 
+	/**
+	 * Returns the body decoded with the request charset (UTF-8 if the
+	 * request declares none).
+	 *
+	 * @return the body, or null if it could not be read
+	 * @throws UncheckedIOException
+	 *             wrapping a {@link PayloadTooLargeException} if the body is
+	 *             larger than the allowed maximum
+	 */
 	public String body() {
 		try {
-			return IOUtils.toString(raw.getInputStream());
+			return new String(bodyBytes(), charset());
+		} catch (PayloadTooLargeException ex) {
+			throw new UncheckedIOException(ex);
 		} catch (IOException ex) {
 			ex.printStackTrace();
 			return null;
 		}
 	}
 
+	/**
+	 * @return the whole body, read once and kept for later calls
+	 * @throws PayloadTooLargeException
+	 *             if the body is larger than the allowed maximum
+	 */
+	public byte[] bodyBytes() throws IOException {
+		if (body == null) {
+			long expectedLength = raw.getHeader(CONTENT_ENCODING) == null ? raw.getContentLengthLong() : -1;
+			try (InputStream in = bodyStream()) {
+				body = IOUtils.toByteArray(in, expectedLength);
+			}
+		}
+		return body;
+	}
+
+	public ByteBuffer bodyBuffer() throws IOException {
+		return ByteBuffer.wrap(bodyBytes());
+	}
+
+	/**
+	 * Returns the body as a stream, decompressed as it is read when the
+	 * request has a gzip or deflate Content-Encoding. Reading more than the
+	 * allowed maximum fails with {@link PayloadTooLargeException}.
+	 *
+	 * @return the body stream
+	 * @throws PayloadTooLargeException
+	 *             if the Content-Length is larger than the allowed maximum
+	 */
+	public InputStream bodyStream() throws IOException {
+		if (body != null) return new ByteArrayInputStream(body);
+
+		if (maxBodySize >= 0 && raw.getContentLengthLong() > maxBodySize)
+			throw new PayloadTooLargeException(maxBodySize);
+
+		InputStream in = raw.getInputStream();
+
+		String encoding = raw.getHeader(CONTENT_ENCODING);
+		if (encoding != null) {
+			encoding = encoding.trim().toLowerCase(Locale.ROOT);
+			if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+				in = new GZIPInputStream(in, IOUtils.BUFFER_SIZE / 8);
+			} else if (encoding.equals("deflate")) {
+				in = new InflaterInputStream(in);
+			}
+		}
+
+		return maxBodySize >= 0 ? new LimitedInputStream(in, maxBodySize) : in;
+	}
+
+	public ReadableByteChannel bodyChannel() throws IOException {
+		return Channels.newChannel(bodyStream());
+	}
+
+	/**
+	 * Parses the JSON body into the type as it is read from
+	 * {@link #bodyStream()}, so the limit of the body size applies and the
+	 * body is never held as a whole. Beans, records, collections, maps and
+	 * arrays are read as {@link Result#json(Object)} writes them.
+	 *
+	 * @return the body, or null if it is the JSON null
+	 * @throws UnsupportedMediaTypeException
+	 *             if the request declares a Content-Type other than JSON
+	 * @throws JsonParseException
+	 *             if the body is not JSON or does not fit the type
+	 * @throws PayloadTooLargeException
+	 *             if the body is larger than the allowed maximum
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T json(Class<T> type) throws IOException {
+		return (T) json((Type) type);
+	}
+
+	/**
+	 * Same as {@link #json(Class)}, for a generic type.
+	 */
+	Object json(Type type) throws IOException {
+		if (contentType != null && !isJson(contentType))
+			throw new UnsupportedMediaTypeException(contentType, "application/json");
+
+		try (InputStream in = bodyStream()) {
+			return JsonReader.read(in, type);
+		}
+	}
+
+	private static boolean isJson(String contentType) {
+		int end = contentType.indexOf(';');
+		String mediaType = (end >= 0 ? contentType.substring(0, end) : contentType).trim().toLowerCase(Locale.ROOT);
+		return mediaType.equals("application/json") || mediaType.endsWith("+json");
+	}
+
+	/**
+	 * @return the charset of the request, UTF-8 if none is declared
+	 */
+	public Charset charset() {
+		String encoding = raw.getCharacterEncoding();
+		if (encoding != null) {
+			try {
+				return Charset.forName(encoding);
+			} catch (IllegalArgumentException ex) {
+				// unsupported, fall back
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Streams a <code>multipart/form-data</code> body part by part, without
+	 * the container buffering it or writing temporary files. The body is
+	 * limited like {@link #bodyStream()}.
+	 *
+	 * @return the parts, to close once read
+	 * @throws IOException
+	 *             if the request is not multipart
+	 */
+	public Multipart multipart() throws IOException {
+		String boundary = Multipart.boundary(raw.getContentType());
+		if (boundary == null) throw new IOException("not a multipart request: " + raw.getContentType());
+
+		return new Multipart(bodyStream(), boundary);
+	}
+
 	public Part part(String name) {
 		try {
 			return raw.getPart(name);
@@ -155,7 +382,7 @@ public class Request {
 	 */
 	public String param(String param) {
 		if (param.startsWith(":"))
-			return indexByTag != null ? RouteUtils.segment(raw, indexByTag.get(param)) : null;
+			return pathParam(param);
 
 		return raw.getParameter(param);
 	}
@@ -172,18 +399,40 @@ public class Request {
 	public <T> T param(String param, Class<T> clazz) throws InstantiationException, IllegalAccessException,
 			IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
 		if (param.startsWith(":"))
-			return indexByTag != null ? convert(RouteUtils.segment(raw, indexByTag.get(param)), clazz) : null;
+			return convert(pathParam(param), clazz);
 
 		return convert(raw.getParameter(param), clazz);
 	}
 
+	private String pathParam(String tag) {
+		if (indexByTag != null) {
+			Integer segment = indexByTag.get(tag);
+			return segment != null ? RouteUtils.segment(raw, segment) : null;
+		}
+
+		return match != null ? match.param(tag) : null;
+	}
+
+	<T> T pathParam(int slot, Class<T> clazz) throws InstantiationException, IllegalAccessException,
+			IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
+		return convert(match.param(slot), clazz);
+	}
+
 	public String[] parameterValues(String param) {
 		return raw.getParameterValues(param);
 	}
 
-	public <T> T[] parameterValues(String param, Class<T> t) throws InstantiationException, IllegalAccessException,
-			IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
-		return convert(raw.getParameterValues(param), t);
+	/**
+	 * @return the values of the parameter converted to an array of the
+	 *         component type, e.g. <code>int[]</code> for
+	 *         <code>int.class</code>
+	 * @see Converters
+	 */
+	@SuppressWarnings("unchecked")
+	public <A> A parameterValues(String param, Class<?> componentType) throws InstantiationException,
+			IllegalAccessException, IllegalArgumentException, InvocationTargetException, NoSuchMethodException,
+			SecurityException {
+		return (A) Converters.convert(raw.getParameterValues(param), componentType);
 	}
 
 	public String queryParams(String queryParam) {
@@ -203,13 +452,16 @@ public class Request {
 	}
 
 	/**
-	 * @return all headers
+	 * @return all headers, read on first use
 	 */
 	public Set<String> headers() {
-		Set<String> headers = new TreeSet<String>();
-		Enumeration<String> enumeration = raw.getHeaderNames();
-		while (enumeration.hasMoreElements()) {
-			headers.add(enumeration.nextElement());
+		if (headers == null) {
+			Set<String> names = new TreeSet<String>();
+			Enumeration<String> enumeration = raw.getHeaderNames();
+			while (enumeration.hasMoreElements()) {
+				names.add(enumeration.nextElement());
+			}
+			headers = names;
 		}
 		return headers;
 	}
@@ -248,7 +500,7 @@ public class Request {
 	/**
 	 * @return all attributes
 	 */
-	private Set<String> attributes() {
+	public Set<String> attributes() {
 		Set<String> attrList = new HashSet<String>();
 		Enumeration<String> attributes = (Enumeration<String>) raw.getAttributeNames();
 		while (attributes.hasMoreElements()) {
@@ -265,11 +517,24 @@ public class Request {
 	 */
 	public Session session() {
 		if (session == null) {
-			session = new Session(raw.getSession());
+			session = sessions != null ? sessions.open(this) : new Session(raw.getSession());
 		}
 		return session;
 	}
 
+	/**
+	 * Saves the session opened by the request to the store.
+	 */
+	void saveSession() {
+		if (session != null && sessions != null) {
+			try {
+				sessions.save(session);
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
 	/**
 	 * Returns the current session associated with this request, or if there is
 	 * no current session and <code>create</code> is true, returns a new
@@ -285,7 +550,9 @@ public class Request {
 	 *
 	 */
 	public Session session(boolean create) {
-		if (session == null) {
+		if (session == null && sessions != null) {
+			session = sessions.open(this, create);
+		} else if (session == null) {
 			HttpSession httpSession = raw.getSession(create);
 			if (httpSession != null) {
 				session = new Session(httpSession);
@@ -302,7 +569,7 @@ public class Request {
 	 * @return <code>Cookie</code> with the specified name
 	 */
 	public Cookie cookie(String name) {
-		Cookie[] cookies = raw.getCookies();
+		Cookie[] cookies = cookies();
 		if (cookies != null) {
 			for (Cookie cookie : cookies) {
 				if (cookie.getName().equals(name)) {
@@ -313,67 +580,26 @@ public class Request {
 		return null;
 	}
 
-	private <T> T convert(String value, Class<T> t) throws InstantiationException, IllegalAccessException,
-			IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
-		if (t.isAssignableFrom(char.class))
-			return t.getDeclaredConstructor(char.class).newInstance(value.charAt(0));
-
-		return t.getDeclaredConstructor(String.class).newInstance(value);
-	}
-	
-	@SuppressWarnings("unchecked")
-	private <T> T[] convert(String[] value, Class<T> t) throws InstantiationException, IllegalAccessException,
-			IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
-
-		Object arr = Array.newInstance(t, value.length);
-		int arrLength = ((T[])arr).length;
-		for (int i = 0; i < arrLength; i++)
-			((T[])arr)[i] = convert(value[i], t);
-		
-		return (T[]) arr;
+	private <T> T convert(String value, Class<T> t) {
+		return Converters.convert(value, t);
 	}
 
-
+	/**
+	 * Binds the request parameters to a new instance of the class, through
+	 * its setters or public fields. Nested properties
+	 * (<code>address.city</code>) and indexed lists
+	 * (<code>items[3].qty</code>) are supported.
+	 *
+	 * @return the bound instance, or null if it could not be bound
+	 */
 	public <T> T bindParams(Class<T> clazz) {
-		T returnObject = null;
 		try {
-			Method[] methods = clazz.getDeclaredMethods();
-
-			if (Modifier.isStatic(clazz.getModifiers())) {
-				try {
-					Constructor<T> ctr = clazz.getDeclaredConstructor();
-					ctr.setAccessible(true);
-					returnObject = (T) ctr.newInstance();
-				} catch (Exception ex) {
-					ex.printStackTrace();
-					return null;
-				}
-			} else {
-				returnObject = (T) clazz.getConstructor().newInstance();
-			}
-
-			for (Method m : methods) {
-				if (m.getName().startsWith("set")) {
-
-					String prop = m.getName().substring(3);
-
-					char[] stringArray = prop.trim().toCharArray();
-					stringArray[0] = Character.toLowerCase(stringArray[0]);
-					prop = new String(stringArray);
-
-					String value = raw.getParameter(prop);
-
-					if (value != null) {
-
-						Class<?> t = m.getParameterTypes()[0];
-						convert(value, t);
-					}
-				}
-			}
-		} catch (Exception ex) {
+			return BeanBinder.of(clazz).bind(raw);
+		} catch (Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
 			ex.printStackTrace();
-		} 
-		
-		return returnObject;
+			return null;
+		}
 	}
 }
@@ -1,14 +1,26 @@
 package com.github.zerh.servletio;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
 
+import com.github.zerh.servletio.utils.IOUtils;
+
 public class Response {
 
     public final HttpServletResponse raw;
@@ -244,6 +256,20 @@ public class Response {
         print(text, "application/xml");
     }
     
+    /**
+     * Sends the bytes as the whole body, with their Content-Length, in a
+     * single write.
+     */
+    public void send(byte[] body, String contentType) {
+        try {
+            if (contentType != null) raw.setContentType(contentType);
+            raw.setContentLength(body.length);
+            raw.getOutputStream().write(body);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
     public void sendError(int error) {
         try {
             raw.sendError(error);
@@ -268,13 +294,41 @@ public class Response {
         }
     }
     
+    /**
+     * Streams the input to the client and closes it.
+     *
+     * @param inputStream
+     *            the content to send
+     */
     public void sendFile(InputStream inputStream){
+        sendFile(inputStream, -1, null);
+    }
+
+    /**
+     * Streams the input to the client and closes it. When the length is known
+     * and a request is given, its Range header is honored.
+     *
+     * @param inputStream
+     *            the content to send
+     * @param length
+     *            the length of the content, or -1 if unknown
+     * @param request
+     *            the request, or null to always send the whole content
+     */
+    public void sendFile(InputStream inputStream, long length, Request request){
         try {
-            int ch = 0;
-            ServletOutputStream stream = raw.getOutputStream(); 
-            BufferedInputStream buf = new BufferedInputStream(inputStream);
-            while ((ch = buf.read()) !=-1) {
-                stream.write((char)ch);
+            List<ByteRange> ranges = length >= 0 && request != null
+                    ? ByteRange.of(request.raw, length, raw.getHeader("ETag"), -1) : null;
+
+            if (ranges == null) {
+                if (length >= 0) raw.setContentLengthLong(length);
+                IOUtils.copy(inputStream, raw.getOutputStream());
+            } else {
+                long[] position = new long[1];
+                sendRanges(ranges, length, (out, start, count) -> {
+                    position[0] += IOUtils.skip(inputStream, start - position[0]);
+                    position[0] += IOUtils.copy(inputStream, count, out);
+                });
             }
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -288,4 +342,144 @@ public class Response {
             }
         }
     }
+
+    /**
+     * Streams the channel to the client and closes it.
+     *
+     * @param channel
+     *            the content to send
+     */
+    public void sendFile(ReadableByteChannel channel){
+        try {
+            IOUtils.copy(channel, raw.getOutputStream());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public void sendFile(File file){
+        sendFile(file.toPath());
+    }
+
+    public void sendFile(Path path){
+        sendFile(path, null);
+    }
+
+    /**
+     * Sends the file, setting the Content-Length, Last-Modified, an ETag made
+     * of its size and modification time and, if none was set, the
+     * Content-Type guessed from the file name. When a request is given, a
+     * current If-None-Match or If-Modified-Since gets a 304, and its Range and
+     * If-Range headers are honored so only the requested slices are read.
+     *
+     * @param path
+     *            the file to send
+     * @param request
+     *            the request, or null to always send the whole file
+     */
+    public void sendFile(Path path, Request request){
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+
+            if (raw.getContentType() == null) type(contentTypeOf(path));
+            raw.setHeader("Accept-Ranges", "bytes");
+            raw.setDateHeader("Last-Modified", lastModified);
+
+            String etag = raw.getHeader("ETag");
+            if (etag == null) {
+                etag = ETags.of(size, lastModified);
+                raw.setHeader("ETag", etag);
+            }
+
+            if (request != null && ETags.notModified(request.raw, etag, lastModified)) {
+                raw.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            List<ByteRange> ranges = request != null ? ByteRange.of(request.raw, size, etag, lastModified) : null;
+
+            if (ranges == null) {
+                raw.setContentLengthLong(size);
+                IOUtils.copy(channel, 0, size, raw.getOutputStream());
+            } else {
+                sendRanges(ranges, size, (out, start, count) -> IOUtils.copy(channel, start, count, out));
+            }
+        } catch (NoSuchFileException ex) {
+            sendError(HttpServletResponse.SC_NOT_FOUND);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private interface Slice {
+        void write(OutputStream out, long start, long count) throws IOException;
+    }
+
+    /**
+     * Writes a 206 response with the ranges, as a single part or as
+     * <code>multipart/byteranges</code>, or a 416 if none is satisfiable.
+     * Ranges must be sorted and not overlap.
+     */
+    private void sendRanges(List<ByteRange> ranges, long size, Slice slice) throws IOException {
+        if (ranges.isEmpty()) {
+            raw.setHeader("Content-Range", "bytes */" + size);
+            raw.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            raw.setContentLength(0);
+            return;
+        }
+
+        raw.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            raw.setHeader("Content-Range", range.contentRange(size));
+            raw.setContentLengthLong(range.length());
+            slice.write(raw.getOutputStream(), range.start, range.length());
+            return;
+        }
+
+        String contentType = raw.getContentType();
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong())
+                + Long.toHexString(ThreadLocalRandom.current().nextLong());
+
+        byte[][] heads = new byte[ranges.size()][];
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        long length = tail.length;
+        for (int i = 0; i < heads.length; i++) {
+            ByteRange range = ranges.get(i);
+            heads[i] = ("\r\n--" + boundary + "\r\n"
+                    + (contentType != null ? "Content-Type: " + contentType + "\r\n" : "")
+                    + "Content-Range: " + range.contentRange(size) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            length += heads[i].length + range.length();
+        }
+
+        raw.setContentType("multipart/byteranges; boundary=" + boundary);
+        raw.setContentLengthLong(length);
+
+        OutputStream out = raw.getOutputStream();
+        for (int i = 0; i < heads.length; i++) {
+            out.write(heads[i]);
+            slice.write(out, ranges.get(i).start, ranges.get(i).length());
+        }
+        out.write(tail);
+    }
+
+    static String contentTypeOf(Path path) {
+        String contentType = null;
+        try {
+            contentType = Files.probeContentType(path);
+        } catch (IOException ex) {
+            // guess from the name
+        }
+        if (contentType == null) contentType = URLConnection.guessContentTypeFromName(path.getFileName().toString());
+
+        return contentType != null ? contentType : "application/octet-stream";
+    }
 }
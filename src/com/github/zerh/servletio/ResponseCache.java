@@ -0,0 +1,220 @@
+package com.github.zerh.servletio;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Bounded cache of the responses of {@link com.github.zerh.servletio.annotation.Cached}
+ * actions.
+ * <p>
+ * Entries are spread over segments, each an access ordered map with its own
+ * lock and a share of the byte budget, so lookups of different keys rarely
+ * contend and the least recently used entries are evicted first. The size
+ * of an entry is its body plus an estimate of its key and headers.
+ */
+public final class ResponseCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long segmentCapacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ResponseCache(long capacity) {
+        segmentCapacity = Math.max(capacity / SEGMENTS, 0);
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment();
+    }
+
+    private Segment segmentOf(String key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * @return the entry, fresh or stale, or null if missing or past its stale
+     *         window; counts a hit, a stale hit or a miss
+     */
+    Entry get(String key, long now) {
+        Segment segment = segmentOf(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.map.get(key);
+            if (entry != null && now >= entry.staleUntil) {
+                segment.map.remove(key);
+                segment.weight -= entry.weight;
+                entry = null;
+            }
+        }
+
+        if (entry == null) misses.increment();
+        else if (now < entry.expires) hits.increment();
+        else staleHits.increment();
+
+        return entry;
+    }
+
+    void put(String key, Entry entry) {
+        if (entry.weight > segmentCapacity) return;
+
+        Segment segment = segmentOf(key);
+        synchronized (segment) {
+            Entry old = segment.map.put(key, entry);
+            if (old != null) segment.weight -= old.weight;
+            segment.weight += entry.weight;
+
+            Iterator<Entry> eldest = segment.map.values().iterator();
+            while (segment.weight > segmentCapacity && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                segment.weight -= evicted.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the hits served stale while the entry was being refreshed
+     */
+    public long staleHits() {
+        return staleHits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the estimated size of the entries, in bytes
+     */
+    public long weight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseCache[hits=" + hits() + ", staleHits=" + staleHits() + ", misses=" + misses()
+                + ", evictions=" + evictions() + ", size=" + size() + ", weight=" + weight() + "]";
+    }
+
+    private static final class Segment {
+
+        final Map<String, Entry> map = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        long weight;
+    }
+
+    /**
+     * A captured response: status, content type, headers and body.
+     */
+    static final class Entry {
+
+        final int status;
+        final String contentType;
+        final String characterEncoding;
+        final String[] names;
+        final String[] values;
+        final boolean[] added;
+        final byte[] body;
+        final String etag;
+
+        final long expires;
+        final long staleUntil;
+        final long weight;
+
+        Entry(int status, String contentType, String characterEncoding, String[] names, String[] values,
+                boolean[] added, byte[] body, long expires, long staleUntil, String key) {
+
+            this.status = status;
+            this.contentType = contentType;
+            this.characterEncoding = characterEncoding;
+            this.names = names;
+            this.values = values;
+            this.added = added;
+            this.body = body;
+            this.expires = expires;
+            this.staleUntil = staleUntil;
+
+            String tag = null;
+            for (int i = 0; i < names.length; i++)
+                if (names[i].equalsIgnoreCase("ETag")) tag = values[i];
+            etag = tag;
+
+            long w = 64 + body.length + 2L * key.length();
+            for (int i = 0; i < names.length; i++)
+                w += 2L * (names[i].length() + values[i].length()) + 16;
+            weight = w;
+        }
+
+        boolean isFresh(long now) {
+            return now < expires;
+        }
+
+        /**
+         * Writes the entry, or only its headers with a 304 if the request
+         * holds its ETag.
+         */
+        void writeTo(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            boolean notModified = etag != null && ETags.notModified(request, etag, -1);
+
+            response.setStatus(notModified ? HttpServletResponse.SC_NOT_MODIFIED : status);
+            if (contentType != null) response.setContentType(contentType);
+            if (characterEncoding != null) response.setCharacterEncoding(characterEncoding);
+
+            for (int i = 0; i < names.length; i++) {
+                if (added[i]) response.addHeader(names[i], values[i]);
+                else response.setHeader(names[i], values[i]);
+            }
+
+            if (notModified) return;
+
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package com.github.zerh.servletio;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -17,6 +21,13 @@ public class Result implements Render{
     Cookie[] cookies;
     Cookie[] discardingCookies;
     InputStream inputStream;
+    ReadableByteChannel channel;
+    Path file;
+    long contentLength = -1;
+    String etag;
+    boolean hashETag;
+    boolean json;
+    Object jsonValue;
     
     Map<String, String> header;
     Map<String, String> overwrittenHeader;
@@ -27,12 +38,68 @@ public class Result implements Render{
         init();
     }
     
+    /**
+     * Freezes the result into one that can be kept in a static field and
+     * rendered concurrently: the content is encoded to UTF-8 once and sent in
+     * a single write with its Content-Length. Streamed results cannot be
+     * precomputed.
+     */
+    public static Result precomputed(Result result){
+        return result instanceof PrecomputedResult ? result : new PrecomputedResult(result);
+    }
+
+    public static Result precomputed(int status, String contentType, String content){
+        Result result = new Result(content);
+        result.status = status;
+        result.contentType = contentType;
+        return new PrecomputedResult(result);
+    }
+
+    /**
+     * Serializes the value as JSON straight to the response output stream,
+     * without building the string first: POJOs, records, maps, collections,
+     * arrays and primitives. See {@link JsonWriter} for the mapping.
+     */
+    public static Result json(Object value){
+        Result result = new Result(null);
+        result.json = true;
+        result.jsonValue = value;
+        result.contentType = "application/json";
+        return result;
+    }
+
     void init(){
         header = new HashMap<>();
         overwrittenHeader = new HashMap<>();
         dateHeader = new HashMap<>();
     }
     
+    /**
+     * Sets the Content-Length of a streamed result, when it is known up front.
+     */
+    public Result withContentLength(long contentLength){
+        this.contentLength = contentLength;
+        return this;
+    }
+
+    /**
+     * Tags the result with an ETag hashed from its content. A GET whose
+     * If-None-Match holds it gets a bodiless 304.
+     */
+    public Result withETag(){
+        hashETag = true;
+        return this;
+    }
+
+    /**
+     * Tags the result with the version as ETag, a row version for instance.
+     * A GET whose If-None-Match holds it gets a bodiless 304.
+     */
+    public Result withETag(String version){
+        etag = ETags.quote(version);
+        return this;
+    }
+
     public Result withStatus(int status){
         this.status = status;
         return this;
@@ -132,15 +199,62 @@ public class Result implements Render{
 		for (String key : dateHeader.keySet()) 
 			response.setDateHeader(key, dateHeader.get(key));
 
-		if (content != null) {
+		byte[] jsonBytes = json && hashETag && etag == null ? JsonWriter.toBytes(jsonValue) : null;
+		String tag = etag != null ? etag
+				: hashETag && content != null ? ETags.of(ETags.digest().digest(content.getBytes(StandardCharsets.UTF_8)))
+				: jsonBytes != null ? ETags.of(ETags.digest().digest(jsonBytes))
+				: null;
+		if (tag != null) {
+			response.setHeader("ETag", tag);
+			Long lastModified = dateHeader.get("Last-Modified");
+			if (status == HttpServletResponse.SC_OK
+					&& ETags.notModified(request.raw, tag, lastModified != null ? lastModified : -1)) {
+				response.status(HttpServletResponse.SC_NOT_MODIFIED);
+				close();
+				return;
+			}
+		}
+
+		if (file != null || inputStream != null || channel != null) {
+			if (contentType != null) response.type(contentType);
+			Request rangeRequest = status == HttpServletResponse.SC_OK ? request : null;
+
+			if (file != null) {
+				response.sendFile(file, rangeRequest);
+			} else if (inputStream != null) {
+				response.sendFile(inputStream, contentLength, rangeRequest);
+			} else {
+				if (contentLength >= 0) response.raw.setContentLengthLong(contentLength);
+				response.sendFile(channel);
+			}
+
+		} else if (jsonBytes != null) {
+			response.send(jsonBytes, contentType);
+
+		} else if (json) {
+			if (contentType != null) response.type(contentType);
+			try {
+				JsonWriter.write(jsonValue, response.raw.getOutputStream());
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+
+		} else if (content != null) {
 			if (contentType != null) {
 				response.print(content, contentType);
 			} else {
 				response.print(content);
 			}
 		}
+	}
 
-		
+	private void close() {
+		try {
+			if (inputStream != null) inputStream.close();
+			if (channel != null) channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
     
 }
@@ -0,0 +1,94 @@
+package com.github.zerh.servletio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.zerh.servletio.annotation.Cached;
+import com.github.zerh.servletio.annotation.Compress;
+import com.github.zerh.servletio.annotation.ETag;
+import com.github.zerh.servletio.utils.RouteUtils;
+
+/**
+ * A mapped action: the route template declared on the method and the
+ * information computed once for it at init time.
+ */
+final class Route {
+
+    final String template;
+    final Invoker invoker;
+    final BindingPlan plan;
+
+    /**
+     * Level of {@link Compress} on the method, or -1 to use the servlet's.
+     */
+    final int compressionLevel;
+
+    /**
+     * Seconds of {@link Cached} on the method, or -1 if it is not cached.
+     */
+    final int ttl;
+    final String[] cacheKey;
+    final int staleWhileRevalidate;
+
+    /**
+     * Whether the method has {@link ETag}.
+     */
+    final boolean etag;
+
+    /**
+     * Tags of the <code>:param</code> segments, in the order they appear in
+     * the template.
+     */
+    final String[] tags;
+
+    /**
+     * 1-based segment index of each tag, same order as <code>tags</code>.
+     */
+    final int[] segments;
+
+    FilterChain before = FilterChain.EMPTY;
+    FilterChain after = FilterChain.EMPTY;
+    Metrics.RouteMetrics metrics;
+
+    Route(String template, RouteTable.Action action) {
+        this.template = template;
+        this.invoker = action.invoker;
+
+        List<String> tagList = new ArrayList<String>();
+        List<Integer> segmentList = new ArrayList<Integer>();
+        String[] all = RouteUtils.allSegments(template);
+        for (int i = 0; i < all.length; i++) {
+            if (all[i].startsWith(":")) {
+                tagList.add(all[i]);
+                segmentList.add(i + 1);
+            }
+        }
+
+        tags = tagList.toArray(new String[tagList.size()]);
+        segments = new int[tags.length];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = segmentList.get(i);
+
+        plan = BindingPlan.of(action, this);
+
+        compressionLevel = action.compressionLevel;
+        ttl = action.ttl;
+        cacheKey = action.cacheKey;
+        staleWhileRevalidate = action.staleWhileRevalidate;
+        etag = action.etag;
+    }
+
+    boolean isCached() {
+        return ttl >= 0;
+    }
+
+    /**
+     * @return the position of the tag among the route params, or -1
+     */
+    int slotOf(String tag) {
+        for (int i = 0; i < tags.length; i++)
+            if (tags[i].equals(tag)) return i;
+
+        return -1;
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.zerh.servletio;
+
+/**
+ * Result of a route lookup: the matched {@link Route} and the offsets of the
+ * <code>:param</code> segments inside the request path.
+ */
+final class RouteMatch {
+
+    final Route route;
+    final String path;
+
+    /**
+     * Start and end offsets in <code>path</code> of each captured param, two
+     * entries per param, in template order.
+     */
+    final int[] offsets;
+
+    RouteMatch(Route route, String path, int[] offsets) {
+        this.route = route;
+        this.path = path;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return the value captured at the given param slot
+     */
+    String param(int slot) {
+        return path.substring(offsets[slot * 2], offsets[slot * 2 + 1]);
+    }
+
+    /**
+     * @return the value captured for the tag (<code>":id"</code>), or null if
+     *         the route does not declare it
+     */
+    String param(String tag) {
+        int slot = route.slotOf(tag);
+        return slot < 0 ? null : param(slot);
+    }
+}
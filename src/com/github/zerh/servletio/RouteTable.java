@@ -0,0 +1,171 @@
+package com.github.zerh.servletio;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+import com.github.zerh.servletio.annotation.Body;
+import com.github.zerh.servletio.annotation.Cached;
+import com.github.zerh.servletio.annotation.Compress;
+import com.github.zerh.servletio.annotation.ETag;
+import com.github.zerh.servletio.annotation.Param;
+
+/**
+ * The actions and filters of a servlet class, generated at compile time by
+ * {@link com.github.zerh.servletio.processor.RouteProcessor} as
+ * <code>&lt;Servlet&gt;_RouteTable</code> in the package of the servlet.
+ * <p>
+ * When the table exists, {@link ServletIO} registers it at init instead of
+ * scanning the methods of the servlet, and the generated stubs call the
+ * methods directly instead of through method handles.
+ */
+public interface RouteTable {
+
+    /**
+     * Appended to the binary name of the servlet, <code>$</code> replaced
+     * by <code>_</code>, to name its table.
+     */
+    String SUFFIX = "_RouteTable";
+
+    void register(ServletIO servlet, Routes routes);
+
+    /**
+     * Calls a method of the servlet with its bound arguments.
+     */
+    interface Stub {
+        Object invoke(Object[] args) throws Exception;
+    }
+
+    /**
+     * Receives the routes and filters of a table.
+     */
+    interface Routes {
+
+        /**
+         * @param method
+         *            GET, POST, PUT, DELETE or OPTIONS
+         * @param template
+         *            the route, without trailing slash
+         */
+        void map(String method, String template, Action action);
+
+        void before(Action action, int priority, String[] only, String[] unless);
+
+        void after(Action action, int priority, String[] only, String[] unless);
+    }
+
+    /**
+     * A mapped method: how to bind its arguments, how to call it and the
+     * annotations that change how it is rendered.
+     */
+    final class Action {
+
+        final Class<?>[] types;
+        final String[] params;
+        final Invoker invoker;
+
+        /**
+         * The {@link Body} type of each parameter, null when none is.
+         */
+        Type[] bodyTypes;
+
+        int compressionLevel = -1;
+        boolean etag;
+        int ttl = -1;
+        String[] cacheKey;
+        int staleWhileRevalidate;
+
+        /**
+         * @param types
+         *            the parameter types of the method
+         * @param params
+         *            the {@link Param} value of each parameter, or null
+         */
+        public Action(Class<?>[] types, String[] params, Stub stub) {
+            this(types, params, (Invoker) stub::invoke);
+        }
+
+        private Action(Class<?>[] types, String[] params, Invoker invoker) {
+            this.types = types;
+            this.params = params;
+            this.invoker = invoker;
+        }
+
+        /**
+         * @return the action of a method found by reflection
+         */
+        static Action of(Object target, Method method) {
+            Parameter[] parameters = method.getParameters();
+            String[] params = new String[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                Param param = parameters[i].getAnnotation(Param.class);
+                if (param != null) params[i] = param.value();
+            }
+
+            Action action = new Action(method.getParameterTypes(), params, Invoker.of(target, method));
+
+            for (int i = 0; i < parameters.length; i++)
+                if (parameters[i].isAnnotationPresent(Body.class)) action.body(i, parameters[i].getParameterizedType());
+
+            Compress compress = method.getAnnotation(Compress.class);
+            if (compress != null) action.compress(compress.level());
+
+            Cached cached = method.getAnnotation(Cached.class);
+            if (cached != null) action.cached(cached.ttl(), cached.key(), cached.staleWhileRevalidate());
+
+            if (method.isAnnotationPresent(ETag.class)) action.etag();
+
+            return action;
+        }
+
+        /**
+         * Same as {@link Body} on the parameter.
+         *
+         * @param type
+         *            the type of the parameter, with its type arguments
+         */
+        public Action body(int index, Type type) {
+            if (bodyTypes == null) bodyTypes = new Type[types.length];
+            bodyTypes[index] = type;
+            return this;
+        }
+
+        /**
+         * Same as {@link Compress} on the method.
+         */
+        public Action compress(int level) {
+            compressionLevel = level;
+            return this;
+        }
+
+        /**
+         * Same as {@link ETag} on the method.
+         */
+        public Action etag() {
+            etag = true;
+            return this;
+        }
+
+        /**
+         * Same as {@link Cached} on the method.
+         */
+        public Action cached(int ttl, String[] key, int staleWhileRevalidate) {
+            this.ttl = ttl;
+            this.cacheKey = key;
+            this.staleWhileRevalidate = staleWhileRevalidate;
+            return this;
+        }
+    }
+
+    /**
+     * Captures a generic type, the {@link Body} type of a generated action:
+     * <code>new TypeOf&lt;List&lt;Order&gt;&gt;() {}.type()</code>.
+     */
+    abstract class TypeOf<T> {
+
+        public Type type() {
+            return ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.github.zerh.servletio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.zerh.servletio.utils.RouteUtils;
+
+/**
+ * Routing index of one HTTP method, built once at init.
+ * <p>
+ * Routes without params are resolved with a single hash lookup. Routes with
+ * <code>:param</code> segments are kept in a segment trie (static children
+ * by hash, one param child per node) and resolved in one pass over the
+ * request path, without splitting it. Static segments take precedence over
+ * params.
+ */
+public final class Router {
+
+    private static final int[] NO_OFFSETS = new int[0];
+
+    private final Map<String, RouteMatch> exact = new HashMap<String, RouteMatch>();
+    private final Node root = new Node();
+    private final List<Route> routes = new ArrayList<Route>();
+    private int maxParams;
+
+    void add(String template, RouteTable.Action action) {
+        Route route = new Route(template, action);
+
+        if (!template.contains(":")) {
+            // first mapping wins, as for the templates with params
+            if (exact.putIfAbsent(template, new RouteMatch(route, template, NO_OFFSETS)) == null) routes.add(route);
+            return;
+        }
+
+        Node node = root;
+        for (String segment : RouteUtils.allSegments(template)) {
+            if (segment.startsWith(":")) {
+                if (node.param == null) node.param = new Node();
+                node = node.param;
+            } else {
+                node = node.child(segment);
+            }
+        }
+
+        // first mapping wins, as it did with the linear scan
+        if (node.route == null) {
+            node.route = route;
+            routes.add(route);
+        }
+        maxParams = Math.max(maxParams, route.tags.length);
+    }
+
+    /**
+     * @param path
+     *            the request route, without trailing slash
+     * @return the match or null if no route is mapped for the path
+     */
+    RouteMatch match(String path) {
+        RouteMatch exactMatch = exact.get(path);
+        if (exactMatch != null) return exactMatch;
+
+        if (maxParams == 0) return null;
+
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') end--;
+
+        // the segment before the first slash is ignored, as in RouteUtils
+        int start = path.indexOf('/');
+        if (start < 0 || start >= end) start = end;
+        else start++;
+
+        int[] offsets = new int[maxParams * 2];
+        Route route = find(root, path, start, end, offsets, 0);
+        return route == null ? null : new RouteMatch(route, path, offsets);
+    }
+
+    /**
+     * @return every route of the index
+     */
+    List<Route> routes() {
+        return routes;
+    }
+
+    boolean isMapped(String path) {
+        return match(path) != null;
+    }
+
+    private Route find(Node node, String path, int pos, int end, int[] offsets, int param) {
+        if (pos == end) return node.route;
+
+        int slash = path.indexOf('/', pos);
+        int segmentEnd = slash < 0 || slash > end ? end : slash;
+        int next = segmentEnd == end ? end : segmentEnd + 1;
+
+        Node child = node.child(path, pos, segmentEnd);
+        if (child != null) {
+            Route route = find(child, path, next, end, offsets, param);
+            if (route != null) return route;
+        }
+
+        if (node.param != null) {
+            Route route = find(node.param, path, next, end, offsets, param + 1);
+            if (route != null) {
+                offsets[param * 2] = pos;
+                offsets[param * 2 + 1] = segmentEnd;
+                return route;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Trie node. Static children live in an open addressing table keyed by
+     * the segment hash, so lookups compare regions of the request path
+     * instead of allocating substrings.
+     */
+    private static final class Node {
+
+        String[] keys = new String[4];
+        Node[] children = new Node[4];
+        int size;
+
+        Node param;
+        Route route;
+
+        Node child(String segment) {
+            Node node = child(segment, 0, segment.length());
+            if (node == null) {
+                if ((size + 1) * 2 > keys.length) resize();
+                node = new Node();
+                put(segment, node);
+            }
+            return node;
+        }
+
+        Node child(String path, int from, int to) {
+            if (size == 0) return null;
+
+            int mask = keys.length - 1;
+            int len = to - from;
+            for (int i = hash(path, from, to) & mask;; i = (i + 1) & mask) {
+                String key = keys[i];
+                if (key == null) return null;
+                if (key.length() == len && key.regionMatches(0, path, from, len)) return children[i];
+            }
+        }
+
+        private void put(String key, Node node) {
+            int mask = keys.length - 1;
+            int i = hash(key, 0, key.length()) & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = key;
+            children[i] = node;
+            size++;
+        }
+
+        private void resize() {
+            String[] oldKeys = keys;
+            Node[] oldChildren = children;
+            keys = new String[oldKeys.length * 2];
+            children = new Node[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++)
+                if (oldKeys[i] != null) put(oldKeys[i], oldChildren[i]);
+        }
+
+        private static int hash(String s, int from, int to) {
+            int h = 0;
+            for (int i = from; i < to; i++)
+                h = 31 * h + s.charAt(i);
+            return h ^ (h >>> 16);
+        }
+    }
+}
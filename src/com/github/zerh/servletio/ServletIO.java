@@ -1,17 +1,36 @@
 package com.github.zerh.servletio;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -23,16 +42,137 @@ import com.github.zerh.servletio.utils.RouteUtils;
 
 public class ServletIO extends HttpServlet {
 
-    private Set<String> allMappedUrl;
-
-    private Map<String, Method> urlGetMap;
-    private Map<String, Method> urlPostMap;
-    private Map<String, Method> urlPutMap;
-    private Map<String, Method> urlDeleteMap;
-    private Map<String, Method> urlOptionsMap;
-
-    private List<Method> afterList;
-    private List<Method> beforeList;
+    /**
+     * Init parameter with the timeout, in milliseconds, of actions returning
+     * a <code>CompletionStage</code>, 0 for none.
+     */
+    public static final String ASYNC_TIMEOUT = "asyncTimeout";
+
+    /**
+     * Init parameter that, set to <code>true</code>, dispatches requests on
+     * virtual threads, like {@link VirtualThreads}.
+     */
+    public static final String VIRTUAL_THREADS = "virtualThreads";
+
+    /**
+     * Init parameter with the maximum request body size in bytes, -1 for no
+     * limit. Larger bodies get a 413.
+     */
+    public static final String MAX_BODY_SIZE = "maxBodySize";
+
+    /**
+     * Init parameter with the size in bytes from which responses are
+     * compressed, -1 to never compress them.
+     */
+    public static final String COMPRESSION_THRESHOLD = "compressionThreshold";
+
+    /**
+     * Init parameter with the default compression level, 1 to 9, of the
+     * actions without {@link Compress}.
+     */
+    public static final String COMPRESSION_LEVEL = "compressionLevel";
+
+    /**
+     * Init parameter with the size in bytes of the cache of {@link Cached}
+     * responses.
+     */
+    public static final String RESPONSE_CACHE_SIZE = "responseCacheSize";
+
+    /**
+     * Init parameter with the path, <code>/metrics</code> for instance, of a
+     * GET route serving the {@link Metrics} in Prometheus text format. There
+     * is no such route if it is not set.
+     */
+    public static final String METRICS_PATH = "metricsPath";
+
+    /**
+     * Init parameter selecting where {@link Request#session()} keeps the
+     * sessions: <code>memory</code> for a {@link MemorySessionStore}, or the
+     * path of the file of a {@link MappedSessionStore}. Sessions are left to
+     * the container if it is not set.
+     */
+    public static final String SESSION_STORE = "sessionStore";
+
+    /**
+     * Init parameter with the max inactive interval, in seconds, of the
+     * sessions kept in a {@link SessionStore}.
+     */
+    public static final String SESSION_TIMEOUT = "sessionTimeout";
+
+    /**
+     * Init parameters with the prefix and suffix completing {@link Jsp} view
+     * names into paths, <code>/WEB-INF/views/</code> and <code>.jsp</code>
+     * for instance.
+     */
+    public static final String VIEW_PREFIX = "viewPrefix";
+    public static final String VIEW_SUFFIX = "viewSuffix";
+
+    /**
+     * Init parameters with the prefix and suffix completing {@link Template}
+     * names into paths, <code>/WEB-INF/templates/</code> and
+     * <code>.html</code> by default.
+     */
+    public static final String TEMPLATE_PREFIX = "templatePrefix";
+    public static final String TEMPLATE_SUFFIX = "templateSuffix";
+
+    /**
+     * Init parameter, <code>true</code> to parse templates again when their
+     * file changes, in development. They are parsed once otherwise.
+     */
+    public static final String TEMPLATE_RELOAD = "templateReload";
+
+    private static final long DEFAULT_ASYNC_TIMEOUT = 30000;
+    private static final long DEFAULT_MAX_BODY_SIZE = 10 * 1024 * 1024;
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    private static final long DEFAULT_RESPONSE_CACHE_SIZE = 32 * 1024 * 1024;
+    private static final int DEFAULT_SESSION_TIMEOUT = 1800;
+    private static final String DEFAULT_TEMPLATE_PREFIX = "/WEB-INF/templates/";
+    private static final String DEFAULT_TEMPLATE_SUFFIX = ".html";
+    private static final int REFRESH_THREADS = 2;
+    private static final int REFRESH_QUEUE = 256;
+
+    private Router getRouter;
+    private Router postRouter;
+    private Router putRouter;
+    private Router deleteRouter;
+    private Router optionsRouter;
+
+    private List<Filter> afterList;
+    private List<Filter> beforeList;
+
+    private FilterChain unmappedBefore;
+    private FilterChain unmappedAfter;
+
+    private long asyncTimeout;
+    private long maxBodySize;
+    private int compressionThreshold;
+    private int compressionLevel;
+    private ResponseCache responseCache;
+    private Metrics metrics;
+    private String metricsPath;
+    private Sessions sessions;
+    private Views views;
+    private Templates templates;
+    private ExecutorService virtualThreads;
+
+    /**
+     * Runs the refreshes of stale cached responses once their client got the
+     * stale copy: the virtual threads, or a small pool of daemon threads.
+     */
+    private ExecutorService refreshes;
+
+    /**
+     * Renders of cached responses in flight, by cache key, that concurrent
+     * misses of the same key wait for instead of calling the action again.
+     */
+    private final ConcurrentMap<String, CompletableFuture<ResponseCache.Entry>> rendering = new ConcurrentHashMap<>();
+
+    /**
+     * Config the servlet was initialized with, to init once per config.
+     */
+    private boolean initialized;
+    private ServletConfig initializedWith;
 
     @Override
     public void init() {
@@ -56,41 +196,192 @@ public class ServletIO extends HttpServlet {
         servletIOInit();
     }
     
-    private void servletIOInit(){
-        
-        urlGetMap = new HashMap<>();
-        urlPostMap = new HashMap<>();
-        urlPutMap = new HashMap<>();
-        urlDeleteMap = new HashMap<>();
-        urlOptionsMap = new HashMap<>();
+    /**
+     * Runs once per config: the container's <code>init(ServletConfig)</code>
+     * calls {@link #init()} as well.
+     */
+    private synchronized void servletIOInit(){
+        if (initialized && initializedWith == getServletConfig()) return;
+        initialized = true;
+        initializedWith = getServletConfig();
+
+        getRouter = new Router();
+        postRouter = new Router();
+        putRouter = new Router();
+        deleteRouter = new Router();
+        optionsRouter = new Router();
         afterList = new ArrayList<>();
         beforeList = new ArrayList<>();
         
+        String timeout = getServletConfig() != null ? getInitParameter(ASYNC_TIMEOUT) : null;
+        asyncTimeout = timeout != null ? Long.parseLong(timeout.trim()) : DEFAULT_ASYNC_TIMEOUT;
+
+        String maxBody = getServletConfig() != null ? getInitParameter(MAX_BODY_SIZE) : null;
+        maxBodySize = maxBody != null ? Long.parseLong(maxBody.trim()) : DEFAULT_MAX_BODY_SIZE;
+
+        String threshold = getServletConfig() != null ? getInitParameter(COMPRESSION_THRESHOLD) : null;
+        compressionThreshold = threshold != null ? Integer.parseInt(threshold.trim()) : DEFAULT_COMPRESSION_THRESHOLD;
+
+        String level = getServletConfig() != null ? getInitParameter(COMPRESSION_LEVEL) : null;
+        compressionLevel = level != null ? Integer.parseInt(level.trim()) : DEFAULT_COMPRESSION_LEVEL;
+
+        String cacheSize = getServletConfig() != null ? getInitParameter(RESPONSE_CACHE_SIZE) : null;
+        responseCache = new ResponseCache(cacheSize != null ? Long.parseLong(cacheSize.trim()) : DEFAULT_RESPONSE_CACHE_SIZE);
+
+        metrics = new Metrics();
+        metricsPath = getServletConfig() != null ? getInitParameter(METRICS_PATH) : null;
+
+        closeSessionStore();
+        SessionStore store = sessionStore();
+        String sessionTimeout = getServletConfig() != null ? getInitParameter(SESSION_TIMEOUT) : null;
+        sessions = store == null ? null
+                : new Sessions(store, sessionTimeout != null ? Integer.parseInt(sessionTimeout.trim()) : DEFAULT_SESSION_TIMEOUT);
+
+        views = new Views(viewResolver());
+
+        String templatePrefix = getServletConfig() != null ? getInitParameter(TEMPLATE_PREFIX) : null;
+        String templateSuffix = getServletConfig() != null ? getInitParameter(TEMPLATE_SUFFIX) : null;
+        templates = new Templates(getServletConfig() != null ? getServletContext() : null,
+                templatePrefix != null ? templatePrefix : DEFAULT_TEMPLATE_PREFIX,
+                templateSuffix != null ? templateSuffix : DEFAULT_TEMPLATE_SUFFIX,
+                getServletConfig() != null && Boolean.parseBoolean(getInitParameter(TEMPLATE_RELOAD)));
+
+        boolean virtual = getClass().isAnnotationPresent(VirtualThreads.class)
+                || getServletConfig() != null && Boolean.parseBoolean(getInitParameter(VIRTUAL_THREADS));
+        if (virtual && virtualThreads == null) {
+            virtualThreads = newVirtualThreadExecutor();
+            if (virtualThreads == null) {
+                String warning = "Virtual threads need Java 21 or later, " + getClass().getName()
+                        + " dispatches requests on container threads";
+                if (getServletConfig() != null) log(warning);
+                else System.err.println(warning);
+            }
+        }
+
+        if (refreshes != null && refreshes != virtualThreads) refreshes.shutdown();
+        refreshes = virtualThreads != null ? virtualThreads : newRefreshExecutor();
+
         map();
-        
-        allMappedUrl = new HashSet<>();
-        allMappedUrl.addAll(urlGetMap.keySet());
-        allMappedUrl.addAll(urlPostMap.keySet());
-        allMappedUrl.addAll(urlPutMap.keySet());
-        allMappedUrl.addAll(urlDeleteMap.keySet());
-        allMappedUrl.addAll(urlOptionsMap.keySet());
+        compileFilterChains();
     }
 
-    protected boolean isMapped(Request req) {
-        boolean returnValue = false;
-        Pretty p = new Pretty();
+    @Override
+    public void destroy() {
+        if (refreshes != null) {
+            refreshes.shutdown();
+            refreshes = null;
+        }
+        if (virtualThreads != null) {
+            virtualThreads.shutdown();
+            virtualThreads = null;
+        }
+        closeSessionStore();
+        initialized = false;
+        super.destroy();
+    }
 
-        if (allMappedUrl.contains(RouteUtils.routeOf(req))) {
-            return true;
+    /**
+     * @return an executor starting a virtual thread per task, or null when
+     *         the runtime has no virtual threads (before Java 21)
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
         }
+    }
+
+    /**
+     * @return a pool of up to {@value #REFRESH_THREADS} daemon threads, idle
+     *         ones ending after a minute, that rejects refreshes once
+     *         {@value #REFRESH_QUEUE} are waiting
+     */
+    private static ExecutorService newRefreshExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<Runnable>(REFRESH_QUEUE), runnable -> {
+                    Thread thread = new Thread(runnable, "servletio-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates the store of the sessions, once at init. Override it to keep
+     * them elsewhere, in a shared cache for instance.
+     *
+     * @return the store selected by the {@link #SESSION_STORE} init
+     *         parameter, or null to leave sessions to the container
+     */
+    protected SessionStore sessionStore() {
+        String store = getServletConfig() != null ? getInitParameter(SESSION_STORE) : null;
+        if (store == null || store.trim().isEmpty()) return null;
 
-        for (Object url : allMappedUrl.toArray()) {
-            if (p.match(url.toString()).withRequest(RouteUtils.routeOf(req))) {
-                returnValue = true;
+        if (store.trim().equals("memory")) return new MemorySessionStore();
+
+        try {
+            return new MappedSessionStore(Paths.get(store.trim()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Creates the resolver of the {@link Jsp} view names, once at init.
+     * Resolved paths and their dispatchers are then cached by view name.
+     *
+     * @return a resolver with the {@link #VIEW_PREFIX} and
+     *         {@link #VIEW_SUFFIX} init parameters, or null if neither is
+     *         set
+     */
+    protected ViewResolver viewResolver() {
+        String prefix = getServletConfig() != null ? getInitParameter(VIEW_PREFIX) : null;
+        String suffix = getServletConfig() != null ? getInitParameter(VIEW_SUFFIX) : null;
+        return prefix != null || suffix != null ? ViewResolver.of(prefix, suffix) : null;
+    }
+
+    private void closeSessionStore() {
+        if (sessions != null && sessions.store instanceof Closeable) {
+            try {
+                ((Closeable) sessions.store).close();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            break;
         }
-        return returnValue;
+        sessions = null;
+    }
+
+    /**
+     * @return the cache of the {@link Cached} actions, with its hit, miss and
+     *         eviction counts
+     */
+    public ResponseCache responseCache() {
+        return responseCache;
+    }
+
+    /**
+     * @return the templates of this servlet, to render emails for instance
+     */
+    public Templates templates() {
+        return templates;
+    }
+
+    /**
+     * @return the request metrics of this servlet
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    protected boolean isMapped(Request req) {
+        String route = routeOf(req.raw);
+
+        return getRouter.isMapped(route) || postRouter.isMapped(route) || putRouter.isMapped(route)
+                || deleteRouter.isMapped(route) || optionsRouter.isMapped(route);
     }
 
     protected Result respond(String content) {
@@ -99,6 +390,13 @@ public class ServletIO extends HttpServlet {
         return result;
     }
 
+    /**
+     * @return a 200 result streaming the value as JSON
+     */
+    protected Result json(Object value) {
+        return Result.json(value);
+    }
+
     protected Result badRequest(String content) {
         Result result = new Result(content);
         result.status = 400;
@@ -119,6 +417,17 @@ public class ServletIO extends HttpServlet {
         return notFound(null);
     }
 
+    /**
+     * @return a bodiless 304 carrying the version as ETag, for actions that
+     *         checked {@link Request#isNotModified(String)}
+     */
+    protected Result notModified(String version) {
+        Result result = new Result(null);
+        result.status = HttpServletResponse.SC_NOT_MODIFIED;
+        result.withEditHeader("ETag", ETags.quote(version));
+        return result;
+    }
+
     protected Result redirect(String target) {
         Result result = new Result(null);
         result.redirect = target;
@@ -137,18 +446,52 @@ public class ServletIO extends HttpServlet {
         return result;
     }
 
+    protected Result sendFile(Path file) {
+        Result result = new Result(null);
+        result.file = file;
+        return result;
+    }
+
+    protected Result sendFile(File file) {
+        return sendFile(file.toPath());
+    }
+
+    protected Result sendFile(InputStream inputStream) {
+        Result result = new Result(null);
+        result.inputStream = inputStream;
+        return result;
+    }
+
+    protected Result sendFile(ReadableByteChannel channel) {
+        Result result = new Result(null);
+        result.channel = channel;
+        return result;
+    }
+
     protected Jsp jsp(String viewName){
         return new Jsp(viewName);
     }
 
     protected Jsp jsp(String viewName, String modelName, Object object){
-        return new Jsp(viewName, viewName, object);
+        return new Jsp(viewName, modelName, object);
     }
 
     protected Jsp jsp(String viewName, Map<String, Object> modelMap){
         return new Jsp(viewName, modelMap);
     }
 
+    protected Template template(String name){
+        return new Template(name);
+    }
+
+    protected Template template(String name, String modelName, Object model){
+        return new Template(name, modelName, model);
+    }
+
+    protected Template template(String name, Map<String, Object> modelMap){
+        return new Template(name, modelMap);
+    }
+
     private final List<Method> getPublicMethods(Class<?> clazz) {
         List<Method> methods = new ArrayList<Method>();
         for (Method method : clazz.getDeclaredMethods()) {
@@ -160,272 +503,643 @@ public class ServletIO extends HttpServlet {
     }
 
     private boolean isMappable(Method m) {
+        return isFilter(m) || CompletionStage.class.isAssignableFrom(m.getReturnType());
+    }
+
+    private boolean isFilter(Method m) {
         return Render.class.isAssignableFrom(m.getReturnType());
     }
 
-    private void mapMethod(Map<String, Method> map, String annotationValue, Method m) {
+    private void mapMethod(Router router, String annotationValue, Method m, RouteTable.Action action) {
         if (annotationValue.equals("null")) {
-            map.put("/" + m.getName().toLowerCase(), m);
+            router.add("/" + m.getName().toLowerCase(), action);
         } else {
             if (annotationValue.endsWith("/")) {
                 annotationValue = annotationValue.substring(0, annotationValue.length() - 1);
             }
-            map.put(annotationValue, m);
+            router.add(annotationValue, action);
         }
     }
 
     private void map() {
 
+        RouteTable table = routeTable();
+        if (table != null) {
+            table.register(this, new TableRoutes());
+        } else {
+            mapMethods();
+        }
+
+        Comparator<Filter> comp = new Comparator<Filter>() {
+            @Override
+            public int compare(Filter f1, Filter f2) {
+                return f1.priority - f2.priority;
+            }
+        };
+
+        Collections.sort(beforeList, comp);
+        Collections.sort(afterList, comp);
+    }
+
+    /**
+     * @return the table generated for this servlet class, or null when it
+     *         was compiled without the processor
+     */
+    private RouteTable routeTable() {
+        String name = getClass().getName().replace('$', '_') + RouteTable.SUFFIX;
+        try {
+            Class<?> table = Class.forName(name, true, getClass().getClassLoader());
+            return (RouteTable) table.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void mapMethods() {
+
         for (Method m : getPublicMethods(getClass())) {
             if (isMappable(m)) {
-                
-                if (m.isAnnotationPresent(After.class)) {
-                    afterList.add(m);
+                RouteTable.Action action = RouteTable.Action.of(this, m);
+
+                if (m.isAnnotationPresent(After.class) && isFilter(m)) {
+                    afterList.add(new Filter(action, m.getAnnotation(After.class)));
                 }
 
-                if (m.isAnnotationPresent(Before.class)) {
-                    beforeList.add(m);
+                if (m.isAnnotationPresent(Before.class) && isFilter(m)) {
+                    beforeList.add(new Filter(action, m.getAnnotation(Before.class)));
                 }
 
                 if (m.isAnnotationPresent(Get.class)) {
                     String annotationValue = ((Get) m.getAnnotation(Get.class)).value();
-                    mapMethod(urlGetMap, annotationValue, m);
+                    mapMethod(getRouter, annotationValue, m, action);
                 }
 
                 if (m.isAnnotationPresent(Post.class)) {
                     String annotationValue = ((Post) m.getAnnotation(Post.class)).value();
-                    mapMethod(urlPostMap, annotationValue, m);
+                    mapMethod(postRouter, annotationValue, m, action);
                 }
 
                 if (m.isAnnotationPresent(Put.class)) {
                     String annotationValue = ((Put) m.getAnnotation(Put.class)).value();
-                    mapMethod(urlPutMap, annotationValue, m);
+                    mapMethod(putRouter, annotationValue, m, action);
                 }
 
                 if (m.isAnnotationPresent(Delete.class)) {
                     String annotationValue = ((Delete) m.getAnnotation(Delete.class)).value();
-                    mapMethod(urlDeleteMap, annotationValue, m);
+                    mapMethod(deleteRouter, annotationValue, m, action);
                 }
 
                 if (m.isAnnotationPresent(Options.class)) {
                     String annotationValue = ((Options) m.getAnnotation(Options.class)).value();
-                    mapMethod(urlOptionsMap, annotationValue, m);
+                    mapMethod(optionsRouter, annotationValue, m, action);
                 }
             }
         }
+    }
 
-        Comparator<Method> comp = new Comparator<Method>() {
-            @Override
-            public int compare(Method o1, Method o2) {
-                Method m1 = o1;
-                Method m2 = o2;
+    /**
+     * Registers the entries of a {@link RouteTable} in the routers and
+     * filter lists.
+     */
+    private final class TableRoutes implements RouteTable.Routes {
+
+        @Override
+        public void map(String method, String template, RouteTable.Action action) {
+            switch (method) {
+            case "GET": getRouter.add(template, action); break;
+            case "POST": postRouter.add(template, action); break;
+            case "PUT": putRouter.add(template, action); break;
+            case "DELETE": deleteRouter.add(template, action); break;
+            case "OPTIONS": optionsRouter.add(template, action); break;
+            default: throw new IllegalArgumentException("Unsupported method " + method);
+            }
+        }
 
-                if (m1.isAnnotationPresent(Before.class) && m2.isAnnotationPresent(Before.class)) {
-                    Before before1 = (Before) m1.getAnnotation(Before.class);
-                    Before before2 = (Before) m2.getAnnotation(Before.class);
+        @Override
+        public void before(RouteTable.Action action, int priority, String[] only, String[] unless) {
+            beforeList.add(new Filter(action, priority, only, unless));
+        }
 
-                    return before1.priority() - before2.priority();
-                } else if (m1.isAnnotationPresent(After.class) && m2.isAnnotationPresent(After.class)) {
-                    After after1 = (After) m1.getAnnotation(After.class);
-                    After after2 = (After) m2.getAnnotation(After.class);
+        @Override
+        public void after(RouteTable.Action action, int priority, String[] only, String[] unless) {
+            afterList.add(new Filter(action, priority, only, unless));
+        }
+    }
 
-                    return after1.priority() - after2.priority();
-                }
+    private void compileFilterChains() {
+        Router[] routers = { getRouter, postRouter, putRouter, deleteRouter, optionsRouter };
+        String[] methods = { "GET", "POST", "PUT", "DELETE", "OPTIONS" };
 
-                return 0;
+        for (int i = 0; i < routers.length; i++) {
+            for (Route route : routers[i].routes()) {
+                route.before = FilterChain.of(beforeList, route);
+                route.after = FilterChain.of(afterList, route);
+                route.metrics = metrics.register(methods[i], route.template);
             }
-        };
+        }
 
-        Collections.sort(beforeList, comp);
-        Collections.sort(afterList, comp);
+        unmappedBefore = FilterChain.unmapped(beforeList);
+        unmappedAfter = FilterChain.unmapped(afterList);
     }
 
-    private void callOnly(String[] only, Method method, HttpServletRequest request, HttpServletResponse response) {
+    private void callFilters(FilterChain chain, String route, Request request, Response response) {
+
+        String[] segments = null;
+
+        for (FilterChain.Link link : chain.links) {
+            Map<String, Integer> indexByTag = link.indexByTag;
 
-        Pretty p = new Pretty();
+            if (link.check) {
+                if (segments == null) segments = RouteUtils.allSegments(route);
+                if (!link.filter.appliesTo(route, segments)) continue;
 
-        for (String mappedRoute : only) {
-            if (mappedRoute.equals(RouteUtils.routeOf(request))
-                    || p.match(mappedRoute).withRequest(RouteUtils.routeOf(request))) {
-                callRender(method, request, response, p.indexByTag);
-                break;
+                indexByTag = link.filter.indexByTag(route, segments);
             }
+
+            request.indexByTag = indexByTag;
+            callRender(link.filter.invoker, link.filter.plan, request, response);
         }
-    }
 
-    private void callUnless(String[] unless, Method method, HttpServletRequest request, HttpServletResponse response) {
+        request.indexByTag = null;
+    }
 
-        Pretty p = new Pretty();
+    private void callRender(Invoker invoker, BindingPlan plan, Request request, Response response) {
+        render(call(invoker, plan, request, response), request, response);
+    }
 
-        if (unless.length > 0) {
-            boolean call = true;
-            for (String mappedPath : unless) {
-                if (mappedPath.equals(RouteUtils.routeOf(request))
-                        || p.match(mappedPath).withRequest(RouteUtils.routeOf(request))) {
-                    call = false;
-                    break;
-                }
-            }
-            if (call) {
-                callRender(method, request, response, p.indexByTag);
-            }
-        } else {
-            callRender(method, request, response, p.indexByTag);
+    private Object call(Invoker invoker, BindingPlan plan, Request request, Response response) {
+        try {
+            return invoker.invoke(plan.bind(request, response));
+        } catch (Exception e) {
+            handle(e, request, response);
+            return null;
         }
     }
 
-    private void callFilters(Class<?> filterType, HttpServletRequest request, HttpServletResponse response) {
+    private void render(Object view, Request request, Response response) {
+        try {
+            if(view!=null)
+                ((Render) view).render(request, response);
 
-        boolean after = false, before = false;
-        if (filterType.isAssignableFrom(After.class)) {
-            after = true;
-        } else if (filterType.isAssignableFrom(Before.class)) {
-            before = true;
+        } catch (Exception e) {
+            handle(e, request, response);
         }
+    }
 
-        List<Method> list = after ? afterList : before ? beforeList : null;
+    private void handle(Exception e, Request request, Response response) {
+        metrics.exception(request.match != null ? request.match.route.metrics : null);
 
-        if (list != null) {
-            for (Method method : list) {
-                String[] only = after ? ((After) method.getAnnotation(After.class)).only()
-                        : ((Before) method.getAnnotation(Before.class)).only();
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof PayloadTooLargeException) {
+                if (!response.raw.isCommitted())
+                    response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                return;
+            }
+            if (t instanceof JsonParseException || t instanceof ConversionException) {
+                if (!response.raw.isCommitted()) response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+                return;
+            }
+            if (t instanceof UnsupportedMediaTypeException) {
+                if (!response.raw.isCommitted())
+                    response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+                return;
+            }
+        }
+        e.printStackTrace();
+    }
 
-                String[] unless = after ? ((After) method.getAnnotation(After.class)).unless()
-                        : ((Before) method.getAnnotation(Before.class)).unless();
+    /**
+     * Puts the request in async mode. On timeout the client gets a 503,
+     * unless <code>done</code> was already set by the code completing the
+     * request.
+     *
+     * @param timeout
+     *            in milliseconds, 0 for none
+     * @param ended
+     *            given the status when a timeout or an error sets
+     *            <code>done</code> first, to record the request the code
+     *            completing it then leaves alone; null if that code records
+     *            it anyway
+     */
+    private AsyncContext startAsync(HttpServletRequest req, HttpServletResponse res, AtomicBoolean done,
+            long timeout, IntConsumer ended) {
+        final AsyncContext async = req.startAsync(req, res);
+        async.setTimeout(timeout);
+        async.addListener(new AsyncListener() {
 
-                if (only.length > 0) {
-                    callOnly(only, method, request, response);
-                } else if (unless.length > 0) {
-                    callUnless(unless, method, request, response);
-                } else {
-                    callRender(method, request, response, null);
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                if (done.compareAndSet(false, true)) {
+                    try {
+                        res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    if (ended != null) ended.accept(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    async.complete();
                 }
             }
-        }
-    }
 
-    private Object[] getMethosParamsValues(Method m, Request request, Response response, Map<String, Integer> indexByTag) throws InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
-        Object[] params = new Object[m.getParameterCount()];
+            @Override
+            public void onError(AsyncEvent event) {
+                if (done.compareAndSet(false, true) && ended != null) ended.accept(res.getStatus());
+            }
 
-        for (int i = 0; i < params.length; i++) {
-            Class<?> paramType = m.getParameters()[i].getType();
-            String param = null;
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
 
-            if (m.getParameters()[i].getAnnotationsByType(Param.class).length > 0) {
-                param = m.getParameters()[i].getAnnotationsByType(Param.class)[0].value();
+            @Override
+            public void onStartAsync(AsyncEvent event) {
             }
+        });
+        return async;
+    }
 
-            if (param != null) {
+    /**
+     * Renders the result of an action returning a <code>CompletionStage</code>
+     * once it completes, releasing the container thread meanwhile. After
+     * filters run once the result is rendered.
+     */
+    private void renderAsync(CompletionStage<?> stage, FilterChain after, String route, Request request,
+            Response response) {
+
+        if (!request.raw.isAsyncSupported() || request.raw.isAsyncStarted()) {
+            render(await(stage, response), request, response);
+            callFilters(after, route, request, response);
+            finish(request, response);
+            return;
+        }
 
-                if (!param.equals("null")) {
-                    if (m.getParameters()[i].getType().isArray()) {
-                        System.out.println("array");
-                        params[i] = request.parameterValues(param, paramType.getComponentType());
-                    } else {
-                        params[i] = request.param(param, paramType);
-                    }
+        final AtomicBoolean done = new AtomicBoolean();
+        final AsyncContext async = startAsync(request.raw, response.raw, done, asyncTimeout,
+                status -> metrics.finished(request.match.route.metrics, status, System.nanoTime() - request.started));
+
+        stage.whenComplete((view, error) -> {
+            // ended by a timeout or an error, which recorded it
+            if (!done.compareAndSet(false, true)) return;
+
+            try {
+                if (error != null) {
+                    error.printStackTrace();
+                    response.sendInternalServerError();
+                } else {
+                    render(view, request, response);
                 }
+                callFilters(after, route, request, response);
+                finish(request, response);
+            } finally {
+                async.complete();
             }
+        });
+    }
 
-            if (paramType.equals(Request.class)) {
-                params[i] = request;
-            }
+    /**
+     * Blocks until the stage completes, for {@link #ASYNC_TIMEOUT} at most.
+     *
+     * @return the result, or null after sending a 500 if the stage failed or
+     *         a 503 if it timed out
+     */
+    private Object await(CompletionStage<?> stage, Response response) {
+        try {
+            if (asyncTimeout > 0) return stage.toCompletableFuture().get(asyncTimeout, TimeUnit.MILLISECONDS);
+            return stage.toCompletableFuture().get();
+        } catch (TimeoutException e) {
+            if (!response.raw.isCommitted()) response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendInternalServerError();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            response.sendInternalServerError();
+        }
+        return null;
+    }
 
-            if (paramType.equals(Response.class)) {
-                params[i] = response;
+    /**
+     * Serves a {@link Cached} action from the cache, or renders it through a
+     * {@link CaptureResponse} and caches the result. Concurrent misses of a
+     * key wait, up to the async timeout, for the one request rendering it;
+     * the first stale hit of an entry refreshes it in the background.
+     * <p>
+     * Waiting misses, like a cached action returning a CompletionStage,
+     * hold their thread while they wait: the response is captured, so it is
+     * not rendered in async mode.
+     */
+    private void renderCached(RouteMatch match, Request request, Response response) {
+        String key = cacheKey(match, request.raw);
+        long now = System.currentTimeMillis();
+
+        ResponseCache.Entry entry = responseCache.get(key, now);
+        if (entry == null) {
+            CompletableFuture<ResponseCache.Entry> rendered = new CompletableFuture<>();
+            CompletableFuture<ResponseCache.Entry> inFlight = rendering.putIfAbsent(key, rendered);
+            if (inFlight == null) {
+                try {
+                    rendered.complete(capture(match, key, request, response.raw, true));
+                } finally {
+                    rendering.remove(key, rendered);
+                    rendered.complete(null);
+                }
+                return;
             }
 
-            if (paramType.equals(HttpServletRequest.class)) {
-                params[i] = request.raw;
+            entry = rendered(inFlight);
+            if (entry == null) {
+                capture(match, key, request, response.raw, true);
+                return;
             }
+        }
+
+        try {
+            entry.writeTo(request.raw, response.raw);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        if (!entry.isFresh(now)) refresh(match, key, request, response);
+    }
+
+    /**
+     * @return the entry rendered by another request, or null if it was not
+     *         cacheable or took longer than the async timeout
+     */
+    private ResponseCache.Entry rendered(CompletableFuture<ResponseCache.Entry> inFlight) {
+        try {
+            if (asyncTimeout > 0) return inFlight.get(asyncTimeout, TimeUnit.MILLISECONDS);
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // rendered by the caller then
+        }
+        return null;
+    }
 
-            if (paramType.equals(HttpServletResponse.class)) {
-                params[i] = response.raw;
+    /**
+     * Renders a stale entry again on the refresh executor, with copies of the
+     * request and response as the container recycles them once the stale
+     * copy is sent. Does nothing if the key is already being rendered.
+     */
+    private void refresh(RouteMatch match, String key, Request request, Response response) {
+        CompletableFuture<ResponseCache.Entry> rendered = new CompletableFuture<>();
+        if (rendering.putIfAbsent(key, rendered) != null) return;
+
+        Request detached = new Request(new DetachedRequest(request.raw));
+        detached.match = match;
+        detached.maxBodySize = maxBodySize;
+        detached.started = request.started;
+        detached.views = views;
+        detached.templates = templates;
+        HttpServletResponse res = new DetachedResponse(response.raw);
+
+        Runnable task = () -> {
+            try {
+                rendered.complete(capture(match, key, detached, res, false));
+            } finally {
+                rendering.remove(key, rendered);
+                rendered.complete(null);
             }
+        };
+
+        ExecutorService executor = refreshes;
+        try {
+            if (executor == null) throw new RejectedExecutionException("servlet destroyed");
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rendering.remove(key, rendered);
+            rendered.complete(null);
         }
-        return params;
     }
 
-    private void callRender(Method m, HttpServletRequest req, HttpServletResponse res,
-            Map<String, Integer> indexByTag) {
+    /**
+     * @return the entry cached, or null if the response was not cacheable
+     */
+    private ResponseCache.Entry capture(RouteMatch match, String key, Request request, HttpServletResponse res,
+            boolean live) {
+        CaptureResponse capture = new CaptureResponse(res, live, match.route.etag);
+        Response response = new Response(capture);
 
-        Request request = new Request(req);
-        Response response = new Response(res);
+        try {
+            Object view = call(match.route.invoker, match.route.plan, request, response);
+            if (view instanceof CompletionStage) view = await((CompletionStage<?>) view, response);
+            if (view == null) return null;
+
+            try {
+                ((Render) view).render(request, response);
+            } catch (Exception e) {
+                handle(e, request, response);
+                return null;
+            }
 
-        request.indexByTag = indexByTag;
+            long now = System.currentTimeMillis();
+            long expires = now + match.route.ttl * 1000L;
+            ResponseCache.Entry entry = capture.toEntry(key, expires, expires + match.route.staleWhileRevalidate * 1000L);
+            if (entry != null) responseCache.put(key, entry);
+            return entry;
+        } finally {
+            if (live) {
+                try {
+                    capture.commit(request.raw);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders an {@link ETag} action through a {@link CaptureResponse} that
+     * hashes the body, sending a 304 instead when the client copy is current.
+     */
+    private void renderTagged(RouteMatch match, Request request, Response response) {
+        CaptureResponse capture = new CaptureResponse(response.raw, true, true);
+        Response tagged = new Response(capture);
 
         try {
-            Object[] params = getMethosParamsValues(m, request, response, indexByTag);
-            Render view = (Render) m.invoke(this, params);
+            Object view = call(match.route.invoker, match.route.plan, request, tagged);
+            if (view instanceof CompletionStage) view = await((CompletionStage<?>) view, tagged);
+            render(view, request, tagged);
+        } finally {
+            try {
+                capture.commit(request.raw);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-            if(view!=null)
-                view.render(request, response);
+    private static String cacheKey(RouteMatch match, HttpServletRequest req) {
+        StringBuilder key = new StringBuilder(match.path);
+        String[] names = match.route.cacheKey;
 
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        } catch (IllegalArgumentException e) {
-            e.printStackTrace();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
-        } catch (SecurityException e) {
-            e.printStackTrace();
+        if (names.length == 1 && names[0].equals("*")) {
+            String query = req.getQueryString();
+            if (query != null) key.append('?').append(query);
+            return key.toString();
         }
+
+        for (String name : names) {
+            key.append('\0').append(name);
+            String[] values = req.getParameterValues(name);
+            if (values != null)
+                for (String value : values) key.append('=').append(value);
+        }
+        return key.toString();
     }
 
-    protected void process(Map<String, Method> urlMethodMap, HttpServletRequest request, HttpServletResponse response) {
+    private String routeOf(HttpServletRequest request) {
         String route = RouteUtils.routeOf(request);
         if (route.endsWith("/")) {
             route = route.substring(0, route.length() - 1);
         }
-        Method m = urlMethodMap.get(route);
-        callFilters(After.class, request, response);
-        if (m != null) {
-            callRender(m, request, response, null);
-        } else {
-            Pretty p = new Pretty();
-            boolean exist = false;
-            for (String mappedRoute : urlMethodMap.keySet()) {
-                if (mappedRoute.contains(":") && p.match(mappedRoute).withRequest(route)) {
-                    exist = true;
-                    callRender(urlMethodMap.get(mappedRoute), request, response, p.indexByTag);
-                    break;
-                }
-            }
+        return route;
+    }
+
+    /**
+     * Dispatches the request on the container thread or, in virtual thread
+     * mode, on a new virtual thread while the request is in async mode.
+     */
+    protected void process(Router router, HttpServletRequest req, HttpServletResponse res) {
+        long started = System.nanoTime();
+        metrics.started();
 
-            if (!exist) {
+        ExecutorService executor = virtualThreads;
+
+        if (executor == null || !req.isAsyncSupported()) {
+            dispatch(router, req, res, started);
+            return;
+        }
+
+        // no container timeout: it would complete the response while the
+        // virtual thread still writes to it. The thread always completes the
+        // request, and awaits stages for asyncTimeout at most.
+        final AtomicBoolean done = new AtomicBoolean();
+        final AsyncContext async = startAsync(req, res, done, 0, null);
+
+        try {
+            executor.execute(() -> {
                 try {
-                    response.sendError(404);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    dispatch(router, req, res, started);
+                } finally {
+                    if (done.compareAndSet(false, true)) async.complete();
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            if (done.compareAndSet(false, true)) {
+                dispatch(router, req, res, started);
+                async.complete();
+            }
+        }
+    }
+
+    private void dispatch(Router router, HttpServletRequest req, HttpServletResponse res, long started) {
+        if (maxBodySize >= 0 && req.getContentLengthLong() > maxBodySize) {
+            try {
+                res.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            metrics.finished(null, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, System.nanoTime() - started);
+            return;
+        }
+
+        String route = routeOf(req);
+        RouteMatch match = router.match(route);
+
+        if (match == null && router == getRouter && route.equals(metricsPath)) {
+            serveMetrics(res);
+            metrics.finished(null, res.getStatus(), System.nanoTime() - started);
+            return;
+        }
+
+        Request request = new Request(req);
+        Response response = new Response(compress(req, res, match));
+        request.match = match;
+        request.maxBodySize = maxBodySize;
+        request.started = started;
+        request.sessions = sessions;
+        request.rawResponse = res;
+        request.views = views;
+        request.templates = templates;
+
+        callFilters(match != null ? match.route.before : unmappedBefore, route, request, response);
+        if (match != null && match.route.isCached() && "GET".equals(req.getMethod())) {
+            renderCached(match, request, response);
+        } else if (match != null && match.route.etag && "GET".equals(req.getMethod())) {
+            renderTagged(match, request, response);
+        } else if (match != null) {
+            Object view = call(match.route.invoker, match.route.plan, request, response);
+
+            if (view instanceof CompletionStage) {
+                renderAsync((CompletionStage<?>) view, match.route.after, route, request, response);
+                return;
+            }
+            render(view, request, response);
+        } else {
+            response.sendError(404);
+        }
+        callFilters(match != null ? match.route.after : unmappedAfter, route, request, response);
+        finish(request, response);
+    }
+
+    private HttpServletResponse compress(HttpServletRequest req, HttpServletResponse res, RouteMatch match) {
+        if (compressionThreshold < 0) return res;
+
+        int level = match != null && match.route.compressionLevel >= 0 ? match.route.compressionLevel
+                : compressionLevel;
+        return CompressionResponse.wrap(req, res, compressionThreshold, level);
+    }
+
+    /**
+     * Ends the response and records the request in the metrics.
+     */
+    private void finish(Request request, Response response) {
+        request.saveSession();
+
+        if (response.raw instanceof CompressionResponse) {
+            try {
+                ((CompressionResponse) response.raw).finish();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
-        route = null;
-        m = null;
-        callFilters(Before.class, request, response);
+
+        metrics.finished(request.match != null ? request.match.route.metrics : null, response.raw.getStatus(),
+                System.nanoTime() - request.started);
+    }
+
+    private void serveMetrics(HttpServletResponse res) {
+        try {
+            byte[] body = metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+            res.setContentType("text/plain; version=0.0.4; charset=utf-8");
+            res.setContentLength(body.length);
+            res.getOutputStream().write(body);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     protected void doGet(HttpServletRequest request, HttpServletResponse response) {
-        process(urlGetMap, request, response);
+        process(getRouter, request, response);
     }
 
     protected void doPost(HttpServletRequest request, HttpServletResponse response) {
-        process(urlPostMap, request, response);
+        process(postRouter, request, response);
     }
 
     protected void doPut(HttpServletRequest request, HttpServletResponse response) {
-        process(urlPutMap, request, response);
+        process(putRouter, request, response);
     }
 
     protected void doDelete(HttpServletRequest request, HttpServletResponse response) {
-        process(urlDeleteMap, request, response);
+        process(deleteRouter, request, response);
     }
 
     protected void doOptions(HttpServletRequest request, HttpServletResponse response) {
-        process(urlOptionsMap, request, response);
+        process(optionsRouter, request, response);
     }
 }
@@ -7,12 +7,20 @@ import java.util.TreeSet;
 import javax.servlet.http.HttpSession;
 
 /**
- * Provides session information.
+ * Provides session information, from the container's
+ * <code>HttpSession</code> or from the {@link SessionStore} of the servlet.
  */
 public class Session {
 
     private HttpSession session;
 
+    final SessionData data;
+    private final Sessions sessions;
+    private final Request request;
+    private final boolean isNew;
+    boolean dirty;
+    boolean invalidated;
+
     /**
      * Creates a session with the <code>HttpSession</code>.
      *
@@ -25,11 +33,25 @@ public class Session {
             throw new IllegalArgumentException("session cannot be null");
         }
         this.session = session;
+        this.data = null;
+        this.sessions = null;
+        this.request = null;
+        this.isNew = false;
+    }
+
+    /**
+     * Creates a session kept in a store.
+     */
+    Session(SessionData data, Sessions sessions, Request request, boolean isNew) {
+        this.data = data;
+        this.sessions = sessions;
+        this.request = request;
+        this.isNew = isNew;
     }
 
     /**
      * @return the raw <code>HttpSession</code> object handed in by the servlet
-     *         container.
+     *         container, or null if the session is kept in a store.
      */
     public HttpSession raw() {
         return session;
@@ -47,11 +69,14 @@ public class Session {
      */
     @SuppressWarnings("unchecked")
     public <T> T attribute(String name) {
+        if (data != null) return (T) data.attributes().get(name);
         return (T) session.getAttribute(name);
     }
 
     /**
-     * Binds an object to this session, using the name specified.
+     * Binds an object to this session, using the name specified. A session
+     * kept in a store is saved when the request ends if an attribute was set
+     * or removed, so set a mutable attribute again after changing it.
      *
      * @param name
      *            the name to which the object is bound; cannot be null
@@ -59,6 +84,12 @@ public class Session {
      *            the object to be bound
      */
     public void attribute(String name, Object value) {
+        if (data != null) {
+            if (value == null) data.attributes().remove(name);
+            else data.attributes().put(name, value);
+            dirty = true;
+            return;
+        }
         session.setAttribute(name, value);
     }
 
@@ -68,6 +99,10 @@ public class Session {
      */
     public Set<String> attributes() {
         TreeSet<String> attributes = new TreeSet<String>();
+        if (data != null) {
+            attributes.addAll(data.attributes().keySet());
+            return attributes;
+        }
         Enumeration<String> enumeration = session.getAttributeNames();
         while (enumeration.hasMoreElements()) {
             attributes.add(enumeration.nextElement());
@@ -80,7 +115,7 @@ public class Session {
      *         since midnight January 1, 1970 GMT.
      */
     public long creationTime() {
-        return session.getCreationTime();
+        return data != null ? data.creationTime() : session.getCreationTime();
     }
 
     /**
@@ -88,7 +123,7 @@ public class Session {
      *         session.
      */
     public String id() {
-        return session.getId();
+        return data != null ? data.id() : session.getId();
     }
 
     /**
@@ -98,7 +133,7 @@ public class Session {
      *         request.
      */
     public long lastAccessedTime() {
-        return session.getLastAccessedTime();
+        return data != null ? data.lastAccessedTime() : session.getLastAccessedTime();
     }
 
     /**
@@ -106,7 +141,7 @@ public class Session {
      *         keep this session open between client accesses.
      */
     public int maxInactiveInterval() {
-        return session.getMaxInactiveInterval();
+        return data != null ? data.maxInactiveInterval() : session.getMaxInactiveInterval();
     }
 
     /**
@@ -117,6 +152,11 @@ public class Session {
      *            the interval
      */
     public void maxInactiveInterval(int interval) {
+        if (data != null) {
+            data.maxInactiveInterval(interval);
+            dirty = true;
+            return;
+        }
         session.setMaxInactiveInterval(interval);
     }
 
@@ -124,6 +164,11 @@ public class Session {
      * Invalidates this session then unbinds any objects bound to it.
      */
     public void invalidate() {
+        if (data != null) {
+            invalidated = true;
+            sessions.invalidate(this, request);
+            return;
+        }
         session.invalidate();
     }
 
@@ -132,7 +177,7 @@ public class Session {
      *         client chooses not to join the session.
      */
     public boolean isNew() {
-        return session.isNew();
+        return data != null ? isNew : session.isNew();
     }
 
     /**
@@ -142,6 +187,11 @@ public class Session {
      *            the name of the object to remove from this session
      */
     public void removeAttribute(String name) {
+        if (data != null) {
+            data.attributes().remove(name);
+            dirty = true;
+            return;
+        }
         session.removeAttribute(name);
     }
 }
\ No newline at end of file
@@ -0,0 +1,370 @@
+package com.github.zerh.servletio;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Binary form of session attributes, without Java serialization: each value
+ * is a one byte type tag followed by its content, numbers and lengths as
+ * variable length integers.
+ * <p>
+ * Supported values are null, strings, primitive wrappers, byte arrays,
+ * enums, <code>UUID</code>, <code>BigInteger</code>, <code>BigDecimal</code>,
+ * <code>Date</code>, <code>Instant</code>, <code>LocalDate</code>,
+ * <code>LocalDateTime</code>, and lists, sets and maps of them. Other values
+ * fail with an <code>IllegalArgumentException</code>.
+ */
+public final class SessionCodec {
+
+    private static final byte VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte CHAR = 9;
+    private static final byte STRING = 10;
+    private static final byte BYTES = 11;
+    private static final byte LIST = 12;
+    private static final byte SET = 13;
+    private static final byte MAP = 14;
+    private static final byte UUID_ = 15;
+    private static final byte BIG_INTEGER = 16;
+    private static final byte BIG_DECIMAL = 17;
+    private static final byte DATE = 18;
+    private static final byte INSTANT = 19;
+    private static final byte LOCAL_DATE = 20;
+    private static final byte LOCAL_DATE_TIME = 21;
+    private static final byte ENUM = 22;
+
+    private SessionCodec() {
+    }
+
+    public static byte[] encode(Map<String, Object> attributes) {
+        Out out = new Out(64 + attributes.size() * 32);
+        out.write(VERSION);
+        out.writeVarLong(attributes.size());
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            out.writeString(attribute.getKey());
+            writeValue(out, attribute.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the bytes are not an encoded session
+     */
+    public static Map<String, Object> decode(byte[] bytes, int offset, int length) {
+        In in = new In(bytes, offset, offset + length);
+        if (in.read() != VERSION) throw new IllegalArgumentException("unknown session format");
+
+        int size = in.readLength();
+        Map<String, Object> attributes = new HashMap<String, Object>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String name = in.readString();
+            attributes.put(name, readValue(in));
+        }
+        return attributes;
+    }
+
+    private static void writeValue(Out out, Object value) {
+        if (value == null) {
+            out.write(NULL);
+        } else if (value instanceof String) {
+            out.write(STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Integer) {
+            out.write(INT);
+            out.writeVarLong(zigzag((Integer) value));
+        } else if (value instanceof Long) {
+            out.write(LONG);
+            out.writeVarLong(zigzag((Long) value));
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            out.write(DOUBLE);
+            out.writeLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Float) {
+            out.write(FLOAT);
+            out.writeVarLong(Float.floatToIntBits((Float) value) & 0xffffffffL);
+        } else if (value instanceof Short) {
+            out.write(SHORT);
+            out.writeVarLong(zigzag((Short) value));
+        } else if (value instanceof Byte) {
+            out.write(BYTE);
+            out.write((Byte) value);
+        } else if (value instanceof Character) {
+            out.write(CHAR);
+            out.writeVarLong((Character) value);
+        } else if (value instanceof byte[]) {
+            out.write(BYTES);
+            out.writeBytes((byte[]) value);
+        } else if (value instanceof Enum) {
+            out.write(ENUM);
+            out.writeString(((Enum<?>) value).getDeclaringClass().getName());
+            out.writeString(((Enum<?>) value).name());
+        } else if (value instanceof List) {
+            out.write(LIST);
+            writeElements(out, (List<?>) value);
+        } else if (value instanceof Set) {
+            out.write(SET);
+            writeElements(out, (Set<?>) value);
+        } else if (value instanceof Map) {
+            out.write(MAP);
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeVarLong(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof UUID) {
+            out.write(UUID_);
+            out.writeLong(((UUID) value).getMostSignificantBits());
+            out.writeLong(((UUID) value).getLeastSignificantBits());
+        } else if (value instanceof BigInteger) {
+            out.write(BIG_INTEGER);
+            out.writeBytes(((BigInteger) value).toByteArray());
+        } else if (value instanceof BigDecimal) {
+            out.write(BIG_DECIMAL);
+            out.writeBytes(((BigDecimal) value).unscaledValue().toByteArray());
+            out.writeVarLong(zigzag(((BigDecimal) value).scale()));
+        } else if (value instanceof Date) {
+            out.write(DATE);
+            out.writeVarLong(zigzag(((Date) value).getTime()));
+        } else if (value instanceof Instant) {
+            out.write(INSTANT);
+            out.writeVarLong(zigzag(((Instant) value).getEpochSecond()));
+            out.writeVarLong(((Instant) value).getNano());
+        } else if (value instanceof LocalDate) {
+            out.write(LOCAL_DATE);
+            out.writeVarLong(zigzag(((LocalDate) value).toEpochDay()));
+        } else if (value instanceof LocalDateTime) {
+            out.write(LOCAL_DATE_TIME);
+            out.writeVarLong(zigzag(((LocalDateTime) value).toLocalDate().toEpochDay()));
+            out.writeVarLong(((LocalDateTime) value).toLocalTime().toNanoOfDay());
+        } else {
+            throw new IllegalArgumentException("cannot encode a session attribute of " + value.getClass());
+        }
+    }
+
+    private static void writeElements(Out out, Collection<?> values) {
+        out.writeVarLong(values.size());
+        for (Object element : values)
+            writeValue(out, element);
+    }
+
+    private static Object readValue(In in) {
+        byte tag = in.read();
+        switch (tag) {
+        case NULL:
+            return null;
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case STRING:
+            return in.readString();
+        case INT:
+            return (int) unzigzag(in.readVarLong());
+        case LONG:
+            return unzigzag(in.readVarLong());
+        case DOUBLE:
+            return Double.longBitsToDouble(in.readLong());
+        case FLOAT:
+            return Float.intBitsToFloat((int) in.readVarLong());
+        case SHORT:
+            return (short) unzigzag(in.readVarLong());
+        case BYTE:
+            return in.read();
+        case CHAR:
+            return (char) in.readVarLong();
+        case BYTES:
+            return in.readBytes();
+        case ENUM:
+            return readEnum(in.readString(), in.readString());
+        case LIST: {
+            int size = in.readLength();
+            List<Object> list = new ArrayList<Object>(size);
+            for (int i = 0; i < size; i++)
+                list.add(readValue(in));
+            return list;
+        }
+        case SET: {
+            int size = in.readLength();
+            Set<Object> set = new LinkedHashSet<Object>(size * 2);
+            for (int i = 0; i < size; i++)
+                set.add(readValue(in));
+            return set;
+        }
+        case MAP: {
+            int size = in.readLength();
+            Map<Object, Object> map = new LinkedHashMap<Object, Object>(size * 2);
+            for (int i = 0; i < size; i++)
+                map.put(readValue(in), readValue(in));
+            return map;
+        }
+        case UUID_:
+            return new UUID(in.readLong(), in.readLong());
+        case BIG_INTEGER:
+            return new BigInteger(in.readBytes());
+        case BIG_DECIMAL:
+            return new BigDecimal(new BigInteger(in.readBytes()), (int) unzigzag(in.readVarLong()));
+        case DATE:
+            return new Date(unzigzag(in.readVarLong()));
+        case INSTANT:
+            return Instant.ofEpochSecond(unzigzag(in.readVarLong()), in.readVarLong());
+        case LOCAL_DATE:
+            return LocalDate.ofEpochDay(unzigzag(in.readVarLong()));
+        case LOCAL_DATE_TIME:
+            return LocalDateTime.of(LocalDate.ofEpochDay(unzigzag(in.readVarLong())),
+                    LocalTime.ofNanoOfDay(in.readVarLong()));
+        default:
+            throw new IllegalArgumentException("unknown session value tag " + tag);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object readEnum(String className, String name) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) loader = SessionCodec.class.getClassLoader();
+        try {
+            return Enum.valueOf((Class) Class.forName(className, false, loader), name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("unknown enum " + className, e);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Out {
+
+        private byte[] bytes;
+        private int count;
+
+        Out(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (count + n > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + n));
+        }
+
+        void write(byte b) {
+            ensure(1);
+            bytes[count++] = b;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[count++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[count++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                bytes[count++] = (byte) (value >>> shift);
+        }
+
+        void writeBytes(byte[] value) {
+            writeVarLong(value.length);
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, count, value.length);
+            count += value.length;
+        }
+
+        void writeString(String value) {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, count);
+        }
+    }
+
+    private static final class In {
+
+        private final byte[] bytes;
+        private int pos;
+        private final int end;
+
+        In(byte[] bytes, int pos, int end) {
+            this.bytes = bytes;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        byte read() {
+            if (pos >= end) throw new IllegalArgumentException("truncated session");
+            return bytes[pos++];
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = read();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IllegalArgumentException("malformed session number");
+        }
+
+        int readLength() {
+            long length = readVarLong();
+            if (length < 0 || length > end - pos) throw new IllegalArgumentException("malformed session length");
+            return (int) length;
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | (read() & 0xff);
+            return value;
+        }
+
+        byte[] readBytes() {
+            int length = readLength();
+            byte[] value = Arrays.copyOfRange(bytes, pos, pos + length);
+            pos += length;
+            return value;
+        }
+
+        String readString() {
+            int length = readLength();
+            String value = new String(bytes, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.zerh.servletio;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The state of a session kept in a {@link SessionStore}: its attributes and
+ * timestamps. Stores keeping instances in memory share them between the
+ * concurrent requests of a session, so the attributes are a concurrent map.
+ */
+public final class SessionData {
+
+    private final String id;
+    private final long creationTime;
+    private volatile long lastAccessedTime;
+    private volatile int maxInactiveInterval;
+    private final Map<String, Object> attributes;
+
+    /**
+     * @param maxInactiveInterval
+     *            in seconds, negative for a session that never expires
+     * @param attributes
+     *            copied, null values are dropped
+     */
+    public SessionData(String id, long creationTime, long lastAccessedTime, int maxInactiveInterval,
+            Map<String, Object> attributes) {
+
+        this.id = id;
+        this.creationTime = creationTime;
+        this.lastAccessedTime = lastAccessedTime;
+        this.maxInactiveInterval = maxInactiveInterval;
+        this.attributes = new ConcurrentHashMap<String, Object>(Math.max(attributes.size(), 4));
+        for (Map.Entry<String, Object> attribute : attributes.entrySet())
+            if (attribute.getValue() != null) this.attributes.put(attribute.getKey(), attribute.getValue());
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public long creationTime() {
+        return creationTime;
+    }
+
+    public long lastAccessedTime() {
+        return lastAccessedTime;
+    }
+
+    void lastAccessedTime(long lastAccessedTime) {
+        this.lastAccessedTime = lastAccessedTime;
+    }
+
+    /**
+     * @return in seconds, negative if the session never expires
+     */
+    public int maxInactiveInterval() {
+        return maxInactiveInterval;
+    }
+
+    void maxInactiveInterval(int maxInactiveInterval) {
+        this.maxInactiveInterval = maxInactiveInterval;
+    }
+
+    /**
+     * @return the live attributes
+     */
+    public Map<String, Object> attributes() {
+        return attributes;
+    }
+
+    public boolean isExpired(long now) {
+        return maxInactiveInterval >= 0 && now - lastAccessedTime > maxInactiveInterval * 1000L;
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.zerh.servletio;
+
+/**
+ * Keeps the sessions of a servlet instead of the container, so they can
+ * outlive a restart or be shared between nodes. Set it with the
+ * {@link ServletIO#SESSION_STORE} init parameter or by overriding
+ * {@link ServletIO#sessionStore()}; {@link Request#session()} then reads the
+ * session from the store, and it is written back once the request is
+ * processed.
+ * <p>
+ * Implementations are called concurrently and should not lock the whole
+ * store on lookups. Stores that implement {@link java.io.Closeable} are
+ * closed when the servlet is destroyed.
+ */
+public interface SessionStore {
+
+    /**
+     * @return the session, or null if it does not exist or has expired
+     */
+    SessionData get(String id);
+
+    /**
+     * Saves a new session, or one whose attributes changed.
+     */
+    void put(SessionData session);
+
+    /**
+     * Records that an unchanged session was accessed, its
+     * {@link SessionData#lastAccessedTime()} being updated.
+     */
+    default void touch(SessionData session) {
+        put(session);
+    }
+
+    void remove(String id);
+}
@@ -0,0 +1,99 @@
+package com.github.zerh.servletio;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Opens and saves the {@link Session}s of a servlet kept in a
+ * {@link SessionStore}, identified by a cookie.
+ */
+final class Sessions {
+
+    static final String COOKIE = "SESSIONID";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    final SessionStore store;
+    private final int timeout;
+
+    /**
+     * @param timeout
+     *            max inactive interval of new sessions, in seconds
+     */
+    Sessions(SessionStore store, int timeout) {
+        this.store = store;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return the session of the cookie, or a new one whose cookie is added
+     *         to the response
+     */
+    Session open(Request request) {
+        return open(request, true);
+    }
+
+    /**
+     * @return the session of the cookie or, if there is none and
+     *         <code>create</code> is true, a new one whose cookie is added to
+     *         the response; null otherwise
+     */
+    Session open(Request request, boolean create) {
+        String id = null;
+        Cookie[] cookies = request.cookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies)
+                if (cookie.getName().equals(COOKIE)) id = cookie.getValue();
+        }
+
+        long now = System.currentTimeMillis();
+        SessionData data = id != null ? store.get(id) : null;
+        if (data != null) {
+            data.lastAccessedTime(now);
+            return new Session(data, this, request, false);
+        }
+        if (!create) return null;
+
+        data = new SessionData(newId(), now, now, timeout, Collections.<String, Object> emptyMap());
+        request.rawResponse.addCookie(cookie(request.raw, data.id(), -1));
+        return new Session(data, this, request, true);
+    }
+
+    /**
+     * Saves the session at the end of the request that opened it.
+     */
+    void save(Session session) {
+        if (session.invalidated) return;
+
+        if (session.isNew() || session.dirty) store.put(session.data);
+        else store.touch(session.data);
+    }
+
+    void invalidate(Session session, Request request) {
+        store.remove(session.data.id());
+        if (!request.rawResponse.isCommitted()) request.rawResponse.addCookie(cookie(request.raw, "", 0));
+    }
+
+    private static Cookie cookie(HttpServletRequest req, String id, int maxAge) {
+        Cookie cookie = new Cookie(COOKIE, id);
+        String contextPath = req.getContextPath();
+        cookie.setPath(contextPath == null || contextPath.isEmpty() ? "/" : contextPath);
+        cookie.setHttpOnly(true);
+        cookie.setSecure(req.isSecure());
+        cookie.setMaxAge(maxAge);
+        return cookie;
+    }
+
+    /**
+     * @return 128 random bits, URL safe base 64 encoded
+     */
+    private static String newId() {
+        byte[] bytes = new byte[16];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.zerh.servletio;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renders a template of the servlet's {@link Templates}, streamed to the
+ * response output stream as UTF-8 HTML.
+ */
+public class Template implements Render {
+
+	private final String name;
+	private Map<String, Object> modelMap;
+	private String contentType = "text/html;charset=UTF-8";
+
+	Template(String name) {
+		this.name = name;
+	}
+
+	Template(String name, Map<String, Object> modelMap) {
+		this.name = name;
+		this.modelMap = modelMap;
+	}
+
+	Template(String name, String modelName, Object model) {
+		this.name = name;
+		with(modelName, model);
+	}
+
+	/**
+	 * Adds a value to the model.
+	 */
+	public Template with(String name, Object value) {
+		if (modelMap == null) modelMap = new HashMap<String, Object>();
+		modelMap.put(name, value);
+		return this;
+	}
+
+	/**
+	 * Sets the content type, which should declare the UTF-8 charset.
+	 */
+	public Template as(String contentType) {
+		this.contentType = contentType;
+		return this;
+	}
+
+	@Override
+	public void render(Request request, Response response) {
+		if (request.templates == null) throw new IllegalStateException("templates are rendered by a ServletIO servlet");
+
+		response.raw.setContentType(contentType);
+		try {
+			request.templates.render(name, modelMap, response.raw.getOutputStream());
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.github.zerh.servletio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletContext;
+
+import com.github.zerh.servletio.utils.IOUtils;
+
+/**
+ * Loads, parses and renders the templates of a servlet, an alternative to
+ * {@link Jsp} for pages, fragments and emails that needs no request
+ * dispatcher. Templates are parsed once and cached by name; with reload on,
+ * those on the file system are parsed again when they change. See
+ * {@link CompiledTemplate} for the syntax.
+ * <p>
+ * A template name is completed with the prefix and suffix into a path of the
+ * web application, or of the class path when the application has no such
+ * resource.
+ */
+public final class Templates {
+
+    private final ServletContext context;
+    private final String prefix;
+    private final String suffix;
+    private final boolean reload;
+
+    private final ConcurrentHashMap<String, Entry> templates = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param context
+     *            the web application of the templates, or null to load them
+     *            from the class path only
+     * @param reload
+     *            parse templates again when their file changes, for
+     *            development
+     */
+    public Templates(ServletContext context, String prefix, String suffix, boolean reload) {
+        this.context = context;
+        this.prefix = prefix != null ? prefix : "";
+        this.suffix = suffix != null ? suffix : "";
+        this.reload = reload;
+    }
+
+    /**
+     * Streams the template to the output, which is left open.
+     *
+     * @param model
+     *            the values of the template, may be null
+     * @throws IllegalArgumentException
+     *             if the template has a syntax error
+     * @throws UncheckedIOException
+     *             if the template cannot be read
+     */
+    public void render(String name, Map<String, ?> model, OutputStream out) throws IOException {
+        Utf8Output buffer = new Utf8Output(out);
+        try {
+            template(name).render(this, new CompiledTemplate.Scope(model), buffer, 0);
+            buffer.flush();
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * @return the rendered template, the body of an email for instance
+     */
+    public String render(String name, Map<String, ?> model) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        try {
+            render(name, model, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    CompiledTemplate template(String name) {
+        Entry entry = templates.get(name);
+        if (entry != null && !(reload && entry.isModified())) return entry.template;
+
+        entry = load(name);
+        templates.put(name, entry);
+        return entry.template;
+    }
+
+    private Entry load(String name) {
+        String path = prefix + name + suffix;
+
+        try {
+            String realPath = context != null ? context.getRealPath(path) : null;
+            Path file = realPath != null ? Paths.get(realPath) : null;
+
+            URL url = null;
+            if (file == null || !Files.isRegularFile(file)) {
+                file = null;
+                url = context != null ? context.getResource(path) : null;
+                if (url == null) {
+                    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                    if (loader == null) loader = Templates.class.getClassLoader();
+                    url = loader.getResource(path.startsWith("/") ? path.substring(1) : path);
+                }
+                if (url == null) throw new FileNotFoundException("no template " + path);
+                if (url.getProtocol().equals("file")) file = Paths.get(url.toURI());
+            }
+
+            if (file != null) {
+                long lastModified = Files.getLastModifiedTime(file).toMillis();
+                String source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                return new Entry(CompiledTemplate.parse(name, source), file, lastModified);
+            }
+
+            try (InputStream in = url.openStream()) {
+                return new Entry(CompiledTemplate.parse(name, IOUtils.toString(in, StandardCharsets.UTF_8)), null, 0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static final class Entry {
+
+        final CompiledTemplate template;
+
+        /**
+         * Null when the template is not a file, it is then never reloaded.
+         */
+        final Path file;
+        final long lastModified;
+
+        Entry(CompiledTemplate template, Path file, long lastModified) {
+            this.template = template;
+            this.file = file;
+            this.lastModified = lastModified;
+        }
+
+        boolean isModified() {
+            if (file == null) return false;
+
+            try {
+                return Files.getLastModifiedTime(file).toMillis() != lastModified;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+    }
+}
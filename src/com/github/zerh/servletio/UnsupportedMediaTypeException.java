@@ -0,0 +1,19 @@
+package com.github.zerh.servletio;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request body has a Content-Type the action cannot read. An
+ * action failing with it gets a 415 response.
+ */
+public class UnsupportedMediaTypeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public final String contentType;
+
+    public UnsupportedMediaTypeException(String contentType, String expected) {
+        super("request body of type " + contentType + ", expected " + expected);
+        this.contentType = contentType;
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.zerh.servletio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.github.zerh.servletio.utils.IOUtils;
+
+/**
+ * UTF-8 output over a pooled buffer, written to the stream each time it is
+ * full, so the output held in memory stays bounded however long it is.
+ * Text is encoded char by char into the buffer, with the escapes of a table,
+ * without allocating.
+ */
+final class Utf8Output {
+
+    /**
+     * Escapes of the HTML special chars.
+     */
+    static final byte[][] HTML = new byte[128][];
+
+    /**
+     * Escapes of the chars a JSON string cannot hold.
+     */
+    static final byte[][] JSON = new byte[128][];
+
+    static {
+        HTML['&'] = ascii("&amp;");
+        HTML['<'] = ascii("&lt;");
+        HTML['>'] = ascii("&gt;");
+        HTML['"'] = ascii("&quot;");
+        HTML['\''] = ascii("&#39;");
+
+        for (int c = 0; c < 0x20; c++)
+            JSON[c] = ascii(String.format("\\u%04x", c));
+        JSON['\b'] = ascii("\\b");
+        JSON['\t'] = ascii("\\t");
+        JSON['\n'] = ascii("\\n");
+        JSON['\f'] = ascii("\\f");
+        JSON['\r'] = ascii("\\r");
+        JSON['"'] = ascii("\\\"");
+        JSON['\\'] = ascii("\\\\");
+    }
+
+    /**
+     * Longest escape of the tables.
+     */
+    private static final int MAX_ESCAPE = 6;
+
+    private static final byte[] MIN_LONG = ascii(Long.toString(Long.MIN_VALUE));
+
+    private final OutputStream stream;
+    private byte[] buffer;
+    private int count;
+
+    Utf8Output(OutputStream stream) {
+        this.stream = stream;
+        this.buffer = IOUtils.acquire();
+    }
+
+    static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    void write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - count) {
+            flush();
+            if (bytes.length > buffer.length) {
+                stream.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    void write(char ascii) throws IOException {
+        if (count == buffer.length) flush();
+        buffer[count++] = (byte) ascii;
+    }
+
+    /**
+     * Writes the decimal digits of the value.
+     */
+    void write(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            write(MIN_LONG);
+            return;
+        }
+        if (buffer.length - count < 20) flush();
+
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10)
+            digits++;
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += digits;
+    }
+
+    /**
+     * Writes the text, its ASCII chars replaced by their escape of the table
+     * when they have one.
+     *
+     * @param escapes
+     *            {@link #HTML}, {@link #JSON}, or null to escape nothing
+     */
+    void write(CharSequence text, byte[][] escapes) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (buffer.length - count < MAX_ESCAPE) flush();
+
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                byte[] escape = escapes != null ? escapes[c] : null;
+                if (escape == null) {
+                    buffer[count++] = (byte) c;
+                } else {
+                    System.arraycopy(escape, 0, buffer, count, escape.length);
+                    count += escape.length;
+                }
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xc0 | c >> 6);
+                buffer[count++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, text.charAt(++i));
+                buffer[count++] = (byte) (0xf0 | code >> 18);
+                buffer[count++] = (byte) (0x80 | code >> 12 & 0x3f);
+                buffer[count++] = (byte) (0x80 | code >> 6 & 0x3f);
+                buffer[count++] = (byte) (0x80 | code & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xe0 | c >> 12);
+                buffer[count++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[count++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffer to the stream, without flushing the stream so a
+     * response that fits in the container buffer keeps its length.
+     */
+    void flush() throws IOException {
+        if (count > 0) stream.write(buffer, 0, count);
+        count = 0;
+    }
+
+    /**
+     * Gives the buffer back to the pool, what was not flushed is dropped.
+     */
+    void release() {
+        if (buffer != null) IOUtils.release(buffer);
+        buffer = null;
+    }
+}
@@ -1,6 +1,27 @@
 package com.github.zerh.servletio;
 
+/**
+ * Completes the view names of {@link Jsp}s into paths, set once for a
+ * servlet with {@link ServletIO#viewResolver()}.
+ */
 public interface ViewResolver {
     String prefix();
     String suffix();
+
+    /**
+     * @return a resolver adding the prefix and suffix, either may be null
+     */
+    static ViewResolver of(final String prefix, final String suffix) {
+        return new ViewResolver() {
+            @Override
+            public String prefix() {
+                return prefix;
+            }
+
+            @Override
+            public String suffix() {
+                return suffix;
+            }
+        };
+    }
 }
@@ -0,0 +1,97 @@
+package com.github.zerh.servletio;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+
+/**
+ * The views a servlet rendered, by view name or resolved path: the
+ * resolved path and, for paths from the context root, the container
+ * dispatcher of the path, looked up once and reused by every render.
+ */
+final class Views {
+
+    /**
+     * Views cached in each map, names past it are resolved on each render.
+     */
+    private static final int MAX_VIEWS = 1024;
+
+    private final ViewResolver resolver;
+    private final ConcurrentHashMap<String, View> views = new ConcurrentHashMap<String, View>();
+
+    /**
+     * Views of the {@link Jsp}s given a resolver of their own, by resolved
+     * path: such resolvers are often created for each render, so they
+     * cannot be keys.
+     */
+    private final ConcurrentHashMap<String, View> byPath = new ConcurrentHashMap<String, View>();
+
+    /**
+     * @param resolver
+     *            the resolver of the servlet, or null
+     */
+    Views(ViewResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * @param resolver
+     *            the resolver of the view, null for the one of the servlet
+     */
+    View get(String name, ViewResolver resolver, Request request) {
+        if (resolver == null || resolver == this.resolver) {
+            View view = views.get(name);
+            return view != null ? view : cache(views, name, path(name, this.resolver), request);
+        }
+
+        String path = path(name, resolver);
+        View view = byPath.get(path);
+        return view != null ? view : cache(byPath, path, path, request);
+    }
+
+    private static View cache(ConcurrentHashMap<String, View> cache, String key, String path, Request request) {
+        View view = new View(path, request.raw.getServletContext());
+        if (cache.size() < MAX_VIEWS) {
+            View cached = cache.putIfAbsent(key, view);
+            if (cached != null) return cached;
+        }
+        return view;
+    }
+
+    static String path(String name, ViewResolver resolver) {
+        if (resolver == null) return name;
+
+        String prefix = resolver.prefix();
+        String suffix = resolver.suffix();
+        if (prefix == null && suffix == null) return name;
+
+        StringBuilder path = new StringBuilder(name.length() + 32);
+        if (prefix != null) path.append(prefix);
+        path.append(name);
+        if (suffix != null) path.append(suffix);
+        return path.toString();
+    }
+
+    static final class View {
+
+        final String path;
+
+        /**
+         * Null when the path is relative to the request, the dispatcher is
+         * then looked up on each render.
+         */
+        private final Dispatcher dispatcher;
+
+        View(String path, ServletContext context) {
+            this.path = path;
+
+            RequestDispatcher dispatcher = context != null && path.startsWith("/") ? context.getRequestDispatcher(path) : null;
+            this.dispatcher = dispatcher != null ? new Dispatcher(dispatcher) : null;
+        }
+
+        void forward(Request request, Response response) {
+            (dispatcher != null ? dispatcher : request.dispatcher(path)).forward(request, response);
+        }
+    }
+}
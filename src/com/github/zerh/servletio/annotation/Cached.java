@@ -0,0 +1,39 @@
+package com.github.zerh.servletio.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caches the rendered response of a GET action, per path and selected query
+ * parameters. Only 200 responses without cookies are cached.
+ * <p>
+ * Stale responses are refreshed in the background with a copy of the
+ * request, without its body or session: the action must not use the
+ * session, which throws an IllegalStateException there. Requests waiting
+ * for a response being rendered, and actions returning a CompletionStage,
+ * hold their container thread for up to the async timeout.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cached {
+
+    /**
+     * Seconds a cached response is fresh.
+     */
+    int ttl() default 60;
+
+    /**
+     * Query parameters that are part of the cache key, besides the path.
+     * <code>"*"</code> uses the whole query string.
+     */
+    String[] key() default {};
+
+    /**
+     * Seconds after expiry during which the stale response is still served
+     * while it is refreshed in the background.
+     */
+    int staleWhileRevalidate() default 60;
+
+}
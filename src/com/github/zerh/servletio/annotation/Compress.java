@@ -0,0 +1,21 @@
+package com.github.zerh.servletio.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Sets the compression level of the responses of this action.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Compress {
+
+    /**
+     * Deflate level, 1 (fastest) to 9 (smallest); 0 disables compression for
+     * the action.
+     */
+    int level() default 6;
+
+}
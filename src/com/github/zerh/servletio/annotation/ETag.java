@@ -0,0 +1,16 @@
+package com.github.zerh.servletio.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Tags the responses of this action, Jsp included, with an ETag hashed from
+ * the rendered body, and answers a current If-None-Match with a 304.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ETag {
+
+}
@@ -0,0 +1,15 @@
+package com.github.zerh.servletio.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Dispatch the requests of this servlet on virtual threads (Java 21+). The
+ * servlet must support async. Ignored on older runtimes.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface VirtualThreads {
+}
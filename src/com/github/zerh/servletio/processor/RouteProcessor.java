@@ -0,0 +1,308 @@
+package com.github.zerh.servletio.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+import com.github.zerh.servletio.RouteTable;
+import com.github.zerh.servletio.annotation.After;
+import com.github.zerh.servletio.annotation.Before;
+import com.github.zerh.servletio.annotation.Body;
+import com.github.zerh.servletio.annotation.Cached;
+import com.github.zerh.servletio.annotation.Compress;
+import com.github.zerh.servletio.annotation.Delete;
+import com.github.zerh.servletio.annotation.ETag;
+import com.github.zerh.servletio.annotation.Get;
+import com.github.zerh.servletio.annotation.Options;
+import com.github.zerh.servletio.annotation.Param;
+import com.github.zerh.servletio.annotation.Post;
+import com.github.zerh.servletio.annotation.Put;
+
+/**
+ * Generates the {@link RouteTable} of each servlet with mapped methods, so
+ * the servlet starts without scanning its methods and calls its actions
+ * directly.
+ * <p>
+ * The table maps exactly what <code>ServletIO</code> would find by
+ * reflection: the public methods declared by the servlet class returning a
+ * <code>Render</code> or, for actions, a <code>CompletionStage</code>.
+ * Servlets the table cannot reach, like private nested classes, keep being
+ * mapped by reflection.
+ */
+@SupportedAnnotationTypes({ "com.github.zerh.servletio.annotation.Get",
+        "com.github.zerh.servletio.annotation.Post", "com.github.zerh.servletio.annotation.Put",
+        "com.github.zerh.servletio.annotation.Delete", "com.github.zerh.servletio.annotation.Options",
+        "com.github.zerh.servletio.annotation.Before", "com.github.zerh.servletio.annotation.After" })
+public class RouteProcessor extends AbstractProcessor {
+
+    private static final String[] HTTP_METHODS = { "GET", "POST", "PUT", "DELETE", "OPTIONS" };
+
+    private final Set<String> generated = new HashSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        Set<TypeElement> servlets = new LinkedHashSet<TypeElement>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : round.getElementsAnnotatedWith(annotation)) {
+                if (element instanceof ExecutableElement) servlets.add((TypeElement) element.getEnclosingElement());
+            }
+        }
+
+        TypeElement servletIO = processingEnv.getElementUtils().getTypeElement("com.github.zerh.servletio.ServletIO");
+        if (servletIO == null) return false;
+
+        for (TypeElement servlet : servlets) {
+            if (!processingEnv.getTypeUtils().isSubtype(servlet.asType(), servletIO.asType())) continue;
+            if (!isReachable(servlet)) continue;
+
+            String name = processingEnv.getElementUtils().getBinaryName(servlet).toString();
+            if (!generated.add(name)) continue;
+
+            try {
+                generate(servlet);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Cannot write the route table: " + e.getMessage(), servlet);
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isReachable(TypeElement servlet) {
+        for (Element e = servlet; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            TypeElement type = (TypeElement) e;
+            if (type.getModifiers().contains(Modifier.PRIVATE)) return false;
+            if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) return false;
+        }
+        return true;
+    }
+
+    private void generate(TypeElement servlet) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(servlet).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(servlet).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+                .replace('$', '_') + RouteTable.SUFFIX;
+        String servletName = servlet.getQualifiedName().toString();
+
+        StringBuilder body = new StringBuilder();
+        for (ExecutableElement method : ElementFilter.methodsIn(servlet.getEnclosedElements())) {
+            if (!method.getModifiers().contains(Modifier.PUBLIC)) continue;
+
+            boolean render = returns(method, "com.github.zerh.servletio.Render");
+            boolean stage = returns(method, "java.util.concurrent.CompletionStage");
+            if (!render && !stage) continue;
+
+            String[] templates = templates(method);
+            After after = method.getAnnotation(After.class);
+            Before before = method.getAnnotation(Before.class);
+            boolean filter = render && (after != null || before != null);
+
+            if (!filter && templates == null) continue;
+
+            if (!throwsOnlyExceptions(method)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Methods throwing Throwable cannot be called from a route table, "
+                                + servletName + " is mapped by reflection",
+                        method);
+                return;
+            }
+
+            action(body, servlet, method);
+
+            if (after != null && render)
+                filter(body, "after", after.priority(), after.only(), after.unless());
+
+            if (before != null && render)
+                filter(body, "before", before.priority(), before.only(), before.unless());
+
+            if (templates != null) {
+                for (int i = 0; i < HTTP_METHODS.length; i++) {
+                    if (templates[i] == null) continue;
+                    body.append("        routes.map(").append(literal(HTTP_METHODS[i])).append(", ")
+                            .append(literal(templates[i])).append(", action);\n");
+                }
+            }
+            body.append('\n');
+        }
+
+        try (Writer out = processingEnv.getFiler()
+                .createSourceFile(packageName.isEmpty() ? simpleName : packageName + "." + simpleName, servlet)
+                .openWriter()) {
+
+            if (!packageName.isEmpty()) out.write("package " + packageName + ";\n\n");
+            out.write("/**\n * Routes of {@link " + servletName + "}, generated by "
+                    + RouteProcessor.class.getName() + ".\n */\n");
+            out.write("@SuppressWarnings(\"unchecked\")\n");
+            out.write("public final class " + simpleName + " implements com.github.zerh.servletio.RouteTable {\n\n");
+            out.write("    @Override\n");
+            out.write("    public void register(com.github.zerh.servletio.ServletIO servlet, Routes routes) {\n");
+            out.write("        final " + servletName + " target = (" + servletName + ") servlet;\n");
+            out.write("        Action action;\n\n");
+            out.write(body.toString());
+            out.write("    }\n}\n");
+        }
+    }
+
+    private boolean returns(ExecutableElement method, String typeName) {
+        TypeMirror returnType = method.getReturnType();
+        if (returnType.getKind() != TypeKind.DECLARED) return false;
+
+        Types types = processingEnv.getTypeUtils();
+        TypeElement type = processingEnv.getElementUtils().getTypeElement(typeName);
+        return type != null && types.isAssignable(types.erasure(returnType), types.erasure(type.asType()));
+    }
+
+    private boolean throwsOnlyExceptions(ExecutableElement method) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror exception = processingEnv.getElementUtils().getTypeElement("java.lang.Exception").asType();
+        TypeMirror error = processingEnv.getElementUtils().getTypeElement("java.lang.Error").asType();
+
+        for (TypeMirror thrown : method.getThrownTypes())
+            if (!types.isSubtype(thrown, exception) && !types.isSubtype(thrown, error)) return false;
+
+        return true;
+    }
+
+    /**
+     * @return the template of each HTTP method, or null if the method is
+     *         mapped to none
+     */
+    private String[] templates(ExecutableElement method) {
+        Get get = method.getAnnotation(Get.class);
+        Post post = method.getAnnotation(Post.class);
+        Put put = method.getAnnotation(Put.class);
+        Delete delete = method.getAnnotation(Delete.class);
+        Options options = method.getAnnotation(Options.class);
+
+        if (get == null && post == null && put == null && delete == null && options == null) return null;
+
+        String name = method.getSimpleName().toString();
+        return new String[] {
+                get != null ? template(get.value(), name) : null,
+                post != null ? template(post.value(), name) : null,
+                put != null ? template(put.value(), name) : null,
+                delete != null ? template(delete.value(), name) : null,
+                options != null ? template(options.value(), name) : null };
+    }
+
+    /**
+     * Same rule as <code>ServletIO</code>: the lower case method name when
+     * the annotation has no value, else the value without trailing slash.
+     */
+    private static String template(String value, String methodName) {
+        if (value.equals("null")) return "/" + methodName.toLowerCase();
+        return value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+    }
+
+    private void action(StringBuilder out, TypeElement servlet, ExecutableElement method) {
+        Types types = processingEnv.getTypeUtils();
+        List<? extends VariableElement> parameters = method.getParameters();
+
+        StringBuilder classes = new StringBuilder();
+        StringBuilder params = new StringBuilder();
+        StringBuilder args = new StringBuilder();
+        StringBuilder bodies = new StringBuilder();
+        for (int i = 0; i < parameters.size(); i++) {
+            VariableElement parameter = parameters.get(i);
+            String type = types.erasure(parameter.asType()).toString();
+            Param param = parameter.getAnnotation(Param.class);
+
+            if (i > 0) {
+                classes.append(", ");
+                params.append(", ");
+                args.append(", ");
+            }
+            classes.append(type).append(".class");
+            params.append(param != null ? literal(param.value()) : "null");
+            args.append('(').append(type).append(") args[").append(i).append(']');
+
+            if (parameter.getAnnotation(Body.class) != null) {
+                TypeMirror declared = parameter.asType();
+                boolean generic = declared.getKind() == TypeKind.DECLARED
+                        && !((DeclaredType) declared).getTypeArguments().isEmpty();
+                bodies.append("\n                .body(").append(i).append(", ")
+                        .append(generic ? "new TypeOf<" + declared + ">() {}.type()" : type + ".class").append(')');
+            }
+        }
+
+        String target = method.getModifiers().contains(Modifier.STATIC) ? servlet.getQualifiedName().toString()
+                : "target";
+
+        out.append("        action = new Action(new Class<?>[] ").append(braces(classes)).append(",\n");
+        out.append("                new String[] ").append(braces(params)).append(",\n");
+        out.append("                args -> ").append(target).append('.').append(method.getSimpleName())
+                .append('(').append(args).append("))");
+        out.append(bodies);
+
+        Compress compress = method.getAnnotation(Compress.class);
+        if (compress != null) out.append("\n                .compress(").append(compress.level()).append(')');
+
+        Cached cached = method.getAnnotation(Cached.class);
+        if (cached != null) {
+            out.append("\n                .cached(").append(cached.ttl()).append(", ").append(array(cached.key()))
+                    .append(", ").append(cached.staleWhileRevalidate()).append(')');
+        }
+
+        if (method.getAnnotation(ETag.class) != null) out.append("\n                .etag()");
+
+        out.append(";\n");
+    }
+
+    private static void filter(StringBuilder out, String kind, int priority, String[] only, String[] unless) {
+        out.append("        routes.").append(kind).append("(action, ").append(priority).append(", ")
+                .append(array(only)).append(", ").append(array(unless)).append(");\n");
+    }
+
+    private static String array(String[] values) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) out.append(", ");
+            out.append(literal(values[i]));
+        }
+        return "new String[] " + braces(out);
+    }
+
+    private static String braces(CharSequence elements) {
+        return elements.length() == 0 ? "{}" : "{ " + elements + " }";
+    }
+
+    private static String literal(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') out.append('\\').append(c);
+            else if (c == '\n') out.append("\\n");
+            else if (c == '\r') out.append("\\r");
+            else if (c == '\t') out.append("\\t");
+            else if (c < 0x20 || c > 0x7e) out.append(String.format("\\u%04x", (int) c));
+            else out.append(c);
+        }
+        return out.append('"').toString();
+    }
+}
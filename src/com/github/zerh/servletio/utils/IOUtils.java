@@ -1,34 +1,205 @@
 package com.github.zerh.servletio.utils;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public class IOUtils {
 
+    /**
+     * Size of the buffers used to stream files and bodies.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest expected length allocated up front by
+     * {@link #toByteArray(InputStream, long)}; longer content grows as it is
+     * read, so a false Content-Length cannot reserve a huge array.
+     */
+    private static final long MAX_PRESIZE = 16 * 1024 * 1024;
+
+    private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<byte[]>(64);
+
+    /**
+     * Reads the stream as text in the platform charset and closes it.
+     */
     public static String toString(InputStream in) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        return toString(in, Charset.defaultCharset());
+    }
+
+    /**
+     * Reads the stream as text and closes it. Line terminators are kept.
+     */
+    public static String toString(InputStream in, Charset charset) throws IOException {
         try {
-            InputStreamReader inR = new InputStreamReader(in);
-            BufferedReader buf = new BufferedReader(inR);
-            String line;
-            while ((line = buf.readLine()) != null) {
-                sb.append(line);
-            }
+            return new String(toByteArray(in), charset);
         } finally {
             in.close();
         }
-        return sb.toString();
     }
 
     public static byte[] toByteArray(InputStream input) throws IOException {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        byte[] buf = new byte[1024];
-        for (int n = input.read(buf); n != -1; n = input.read(buf)) {
-            os.write(buf, 0, n);
+        return toByteArray(input, -1);
+    }
+
+    /**
+     * Reads the whole stream.
+     *
+     * @param expectedLength
+     *            the expected number of bytes (e.g. the Content-Length), used
+     *            to size the result up front, or -1 if unknown
+     */
+    public static byte[] toByteArray(InputStream input, long expectedLength) throws IOException {
+        if (expectedLength >= 0 && expectedLength <= MAX_PRESIZE) {
+            byte[] bytes = new byte[(int) expectedLength];
+            int total = 0;
+            while (total < bytes.length) {
+                int n = input.read(bytes, total, bytes.length - total);
+                if (n == -1) return Arrays.copyOf(bytes, total);
+                total += n;
+            }
+
+            int next = input.read();
+            if (next == -1) return bytes;
+
+            ByteArrayOutputStream os = new ByteArrayOutputStream(bytes.length * 2 + 1);
+            os.write(bytes);
+            os.write(next);
+            copy(input, os);
+            return os.toByteArray();
         }
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream(BUFFER_SIZE / 4);
+        copy(input, os);
         return os.toByteArray();
     }
+
+    /**
+     * @return a buffer of {@link #BUFFER_SIZE} bytes from the pool; give it
+     *         back with {@link #release(byte[])}
+     */
+    public static byte[] acquire() {
+        byte[] buffer = BUFFERS.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer.length == BUFFER_SIZE) BUFFERS.offer(buffer);
+    }
+
+    /**
+     * Copies the stream to the output with a pooled buffer.
+     *
+     * @return the number of bytes copied
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long total = 0;
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+                total += n;
+            }
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Copies at most <code>count</code> bytes of the stream to the output
+     * with a pooled buffer.
+     *
+     * @return the number of bytes copied
+     */
+    public static long copy(InputStream in, long count, OutputStream out) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long total = 0;
+            while (total < count) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, count - total));
+                if (n == -1) break;
+                out.write(buffer, 0, n);
+                total += n;
+            }
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Skips exactly <code>count</code> bytes, unless the stream ends first.
+     *
+     * @return the number of bytes skipped
+     */
+    public static long skip(InputStream in, long count) throws IOException {
+        long total = 0;
+        while (total < count) {
+            long n = in.skip(count - total);
+            if (n <= 0) {
+                if (in.read() == -1) break;
+                n = 1;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Copies the channel to the output with a pooled buffer.
+     *
+     * @return the number of bytes copied
+     */
+    public static long copy(ReadableByteChannel in, OutputStream out) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            long total = 0;
+            for (int n = in.read(bb); n != -1; n = in.read(bb)) {
+                out.write(buffer, 0, n);
+                total += n;
+                // through Buffer, JDK 9+ overrides clear() with a return a Java 8 runtime lacks
+                ((Buffer) bb).clear();
+            }
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Copies <code>count</code> bytes of the file from <code>position</code>
+     * with positional reads, so the channel position is left untouched.
+     *
+     * @return the number of bytes copied
+     */
+    public static long copy(FileChannel in, long position, long count, OutputStream out) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(buffer);
+            long total = 0;
+            while (total < count) {
+                ((Buffer) bb).clear();
+                if (count - total < buffer.length) ((Buffer) bb).limit((int) (count - total));
+
+                int n = in.read(bb, position + total);
+                if (n == -1) break;
+                out.write(buffer, 0, n);
+                total += n;
+            }
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
 }
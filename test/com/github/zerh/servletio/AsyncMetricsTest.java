@@ -0,0 +1,89 @@
+package com.github.zerh.servletio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.zerh.servletio.annotation.Get;
+
+public class AsyncMetricsTest {
+
+    public static class AsyncServlet extends ServletIO {
+
+        volatile CompletableFuture<Result> stage;
+
+        @Get("/slow")
+        public CompletionStage<Result> slow() {
+            stage = new CompletableFuture<Result>();
+            return stage;
+        }
+    }
+
+    private AsyncServlet servlet;
+
+    @Before
+    public void init() {
+        servlet = new AsyncServlet();
+        servlet.init();
+    }
+
+    private Metrics.RouteSnapshot route() {
+        for (Metrics.RouteSnapshot route : servlet.metrics().snapshot().routes())
+            if (route.route().equals("/slow")) return route;
+        throw new AssertionError("no /slow route");
+    }
+
+    @Test
+    public void timeoutRecordsRequestOnce() throws Exception {
+        Mocks.Async async = new Mocks.Async();
+        Mocks.Response response = new Mocks.Response();
+        servlet.doGet(Mocks.request("/slow", async), response.raw);
+        assertEquals(1, servlet.metrics().snapshot().inFlight());
+
+        async.timeout();
+        assertEquals(503, response.status);
+        assertTrue(async.completed);
+        assertEquals(0, servlet.metrics().snapshot().inFlight());
+        assertEquals(1, route().responses(5));
+
+        servlet.stage.complete(Result.precomputed(200, "text/plain", "late"));
+        assertEquals(0, servlet.metrics().snapshot().inFlight());
+        assertEquals(1, route().count());
+        assertEquals(0, route().responses(2));
+    }
+
+    @Test
+    public void errorRecordsRequestOnce() throws Exception {
+        Mocks.Async async = new Mocks.Async();
+        Mocks.Response response = new Mocks.Response();
+        servlet.doGet(Mocks.request("/slow", async), response.raw);
+
+        async.error();
+        assertEquals(0, servlet.metrics().snapshot().inFlight());
+
+        servlet.stage.complete(Result.precomputed(200, "text/plain", "late"));
+        assertEquals(0, servlet.metrics().snapshot().inFlight());
+        assertEquals(1, route().count());
+    }
+
+    @Test
+    public void completionRecordsRequest() throws Exception {
+        Mocks.Async async = new Mocks.Async();
+        Mocks.Response response = new Mocks.Response();
+        servlet.doGet(Mocks.request("/slow", async), response.raw);
+
+        servlet.stage.complete(Result.precomputed(200, "text/plain", "done"));
+        assertTrue(async.completed);
+        assertEquals(0, servlet.metrics().snapshot().inFlight());
+        assertEquals(1, route().responses(2));
+
+        async.timeout();
+        assertEquals(200, response.status);
+        assertEquals(1, route().count());
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.zerh.servletio;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.zerh.servletio.annotation.Cached;
+import com.github.zerh.servletio.annotation.Get;
+
+public class CachedRefreshTest {
+
+    public static class CachedServlet extends ServletIO {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Cached(ttl = 0, staleWhileRevalidate = 60)
+        @Get("/count")
+        public Result count() {
+            return Result.precomputed(200, "text/plain", "call " + calls.incrementAndGet());
+        }
+
+        @Cached(ttl = 0, staleWhileRevalidate = 60)
+        @Get("/session")
+        public Result session(Request request) {
+            request.session();
+            return Result.precomputed(200, "text/plain", "call " + calls.incrementAndGet());
+        }
+    }
+
+    private CachedServlet servlet;
+
+    @Before
+    public void init() {
+        servlet = new CachedServlet();
+        servlet.init();
+    }
+
+    @After
+    public void destroy() {
+        servlet.destroy();
+    }
+
+    private String get(String path) {
+        Mocks.Response response = new Mocks.Response();
+        servlet.doGet(Mocks.request(path), response.raw);
+        return response.body();
+    }
+
+    private void awaitCalls(int calls) throws InterruptedException {
+        for (int i = 0; i < 500 && servlet.calls.get() < calls; i++)
+            Thread.sleep(10);
+        Thread.sleep(50);
+    }
+
+    @Test
+    public void staleHitIsRefreshedInBackground() throws Exception {
+        assertEquals("call 1", get("/count"));
+        assertEquals("call 1", get("/count"));
+
+        awaitCalls(2);
+        assertEquals("call 2", get("/count"));
+    }
+
+    @Test
+    public void refreshOfActionUsingSessionKeepsStaleEntry() throws Exception {
+        assertEquals("call 1", get("/session"));
+        assertEquals("call 1", get("/session"));
+
+        Thread.sleep(200);
+        assertEquals(1, servlet.calls.get());
+        assertEquals("call 1", get("/session"));
+    }
+}
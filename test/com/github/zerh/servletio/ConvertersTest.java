@@ -0,0 +1,96 @@
+package com.github.zerh.servletio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.github.zerh.servletio.annotation.Get;
+import com.github.zerh.servletio.annotation.Param;
+
+public class ConvertersTest {
+
+    @Test
+    public void emptyNumberIsMissing() {
+        assertEquals(Integer.valueOf(0), Converters.convert("", int.class));
+        assertEquals(Long.valueOf(0), Converters.convert(" ", long.class));
+        assertEquals(Double.valueOf(0), Converters.convert("", double.class));
+        assertEquals(Float.valueOf(0), Converters.convert("", float.class));
+        assertEquals(Short.valueOf((short) 0), Converters.convert("", short.class));
+        assertEquals(Byte.valueOf((byte) 0), Converters.convert("", byte.class));
+        assertEquals(Character.valueOf('\0'), Converters.convert("", char.class));
+
+        assertNull(Converters.convert("", Integer.class));
+        assertNull(Converters.convert("", Long.class));
+        assertNull(Converters.convert("", Double.class));
+        assertNull(Converters.convert("", Float.class));
+        assertNull(Converters.convert("", Short.class));
+        assertNull(Converters.convert("", Byte.class));
+        assertNull(Converters.convert("", Character.class));
+        assertNull(Converters.convert("", BigDecimal.class));
+
+        assertArrayEquals(new int[] { 1, 0, 3 }, (int[]) Converters.convert(new String[] { "1", "", "3" }, int.class));
+    }
+
+    @Test
+    public void numbersAreTrimmed() {
+        assertEquals(Integer.valueOf(42), Converters.convert(" 42 ", int.class));
+        assertEquals(Long.valueOf(42), Converters.convert(" 42 ", Long.class));
+        assertEquals(Double.valueOf(1.5), Converters.convert(" 1.5 ", double.class));
+        assertEquals(Short.valueOf((short) 7), Converters.convert(" 7", short.class));
+        assertEquals(new BigDecimal("2.50"), Converters.convert("2.50 ", BigDecimal.class));
+    }
+
+    @Test
+    public void malformedValueThrowsConversionException() {
+        for (Class<?> type : new Class<?>[] { int.class, Integer.class, long.class, double.class, Double.class,
+                float.class, short.class, byte.class, BigDecimal.class }) {
+            try {
+                Converters.convert("abc", type);
+                fail(type.getName());
+            } catch (ConversionException e) {
+                assertEquals("abc", e.value);
+                assertEquals(type, e.type);
+            }
+        }
+
+        try {
+            Converters.convert(new String[] { "1", "x" }, long.class);
+            fail();
+        } catch (ConversionException e) {
+            assertEquals("x", e.value);
+        }
+    }
+
+    public static class PageServlet extends ServletIO {
+
+        @Get("/page")
+        public Result page(@Param("page") int page) {
+            return Result.precomputed(200, "text/plain", "page " + page);
+        }
+    }
+
+    private static Mocks.Response get(PageServlet servlet, String page) {
+        Mocks.Response response = new Mocks.Response();
+        servlet.doGet(Mocks.request("/page", Collections.singletonMap("page", page)), response.raw);
+        return response;
+    }
+
+    @Test
+    public void malformedParamGetsBadRequest() {
+        PageServlet servlet = new PageServlet();
+        servlet.init();
+
+        Mocks.Response empty = get(servlet, "");
+        assertEquals(200, empty.status);
+        assertEquals("page 0", empty.body());
+
+        assertEquals(400, get(servlet, "abc").status);
+        assertEquals(400, get(servlet, "1.5").status);
+    }
+}
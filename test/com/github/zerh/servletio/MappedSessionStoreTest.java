@@ -0,0 +1,112 @@
+package com.github.zerh.servletio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedSessionStoreTest {
+
+    private Path file;
+    private MappedSessionStore store;
+
+    @Before
+    public void open() throws Exception {
+        file = Files.createTempFile("sessions", ".bin");
+        Files.delete(file);
+        store = new MappedSessionStore(file, 24, 256);
+    }
+
+    @After
+    public void close() throws Exception {
+        store.close();
+        Files.deleteIfExists(file);
+    }
+
+    private static SessionData session(String id, String owner) {
+        long now = System.currentTimeMillis();
+        return new SessionData(id, now, now, 1800, Collections.<String, Object> singletonMap("owner", owner));
+    }
+
+    @Test
+    public void putGetRemove() {
+        store.put(session("a", "a"));
+        assertEquals("a", store.get("a").attributes().get("owner"));
+
+        store.remove("a");
+        assertNull(store.get("a"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void reopenKeepsSessions() throws Exception {
+        store.put(session("a", "a"));
+        store.close();
+
+        store = new MappedSessionStore(file, 24, 256);
+        assertEquals("a", store.get("a").attributes().get("owner"));
+    }
+
+    /**
+     * Sessions put and removed concurrently, on few slots so they are reused
+     * all the time, must keep a slot each: once the threads are done every
+     * indexed session reads back with its own attributes.
+     */
+    @Test
+    public void concurrentPutRemoveKeepsSessionsApart() throws Exception {
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int round = 0; round < 200; round++) {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> results = new ArrayList<Future<?>>();
+
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    results.add(executor.submit(() -> {
+                        start.await();
+                        for (int i = 0; i < 2000; i++) {
+                            // every thread puts and removes the same ids
+                            String id = "s" + (i % 4);
+                            if ((i + thread) % 3 == 0) store.remove(id);
+                            else if ((i + thread) % 3 == 1) store.put(session(id, id));
+                            else store.get(id);
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> result : results)
+                    result.get(1, TimeUnit.MINUTES);
+
+                int readable = 0;
+                {
+                    for (int i = 0; i < 4; i++) {
+                        String id = "s" + i;
+                        SessionData read = store.get(id);
+                        if (read == null) continue;
+                        assertEquals(id, read.attributes().get("owner"));
+                        readable++;
+                    }
+                }
+                assertEquals("sessions sharing a slot", store.size(), readable);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
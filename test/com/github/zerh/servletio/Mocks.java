@@ -0,0 +1,205 @@
+package com.github.zerh.servletio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Requests and responses answering the calls the tests need and the zero
+ * value of their return type otherwise.
+ */
+final class Mocks {
+
+    private Mocks() {
+    }
+
+    /**
+     * @return a GET request of the path with the cookies and query
+     *         parameters, and a session
+     */
+    static HttpServletRequest request(String path, Map<String, String> params, Cookie... cookies) {
+        return request(path, params, null, cookies);
+    }
+
+    static HttpServletRequest request(String path) {
+        return request(path, Collections.<String, String> emptyMap());
+    }
+
+    /**
+     * @return a GET request of the path that can be put in async mode
+     */
+    static HttpServletRequest request(String path, Async async) {
+        return request(path, Collections.<String, String> emptyMap(), async);
+    }
+
+    private static HttpServletRequest request(String path, Map<String, String> params, Async async,
+            Cookie... cookies) {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        HttpSession session = (HttpSession) Proxy.newProxyInstance(Mocks.class.getClassLoader(),
+                new Class<?>[] { HttpSession.class }, (proxy, method, args) -> zero(method.getReturnType()));
+        return (HttpServletRequest) Proxy.newProxyInstance(Mocks.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getMethod":
+                        return "GET";
+                    case "getRequestURI":
+                    case "getPathInfo":
+                        return path;
+                    case "getContextPath":
+                    case "getServletPath":
+                        return "";
+                    case "getCookies":
+                        return cookies.length > 0 ? cookies : null;
+                    case "getParameter":
+                        return params.get(args[0]);
+                    case "getParameterValues":
+                        return params.containsKey(args[0]) ? new String[] { params.get(args[0]) } : null;
+                    case "getParameterMap":
+                        Map<String, String[]> map = new HashMap<String, String[]>();
+                        for (Map.Entry<String, String> param : params.entrySet())
+                            map.put(param.getKey(), new String[] { param.getValue() });
+                        return map;
+                    case "getSession":
+                        return session;
+                    case "isAsyncSupported":
+                        return async != null;
+                    case "isAsyncStarted":
+                        return async != null && async.started;
+                    case "startAsync":
+                        async.started = true;
+                        return async.context;
+                    case "getAttribute":
+                        return attributes.get(args[0]);
+                    case "setAttribute":
+                        attributes.put((String) args[0], args[1]);
+                        return null;
+                    case "getHeaderNames":
+                    case "getAttributeNames":
+                        return Collections.emptyEnumeration();
+                    case "getContentLength":
+                        return -1;
+                    case "getContentLengthLong":
+                        return -1L;
+                    default:
+                        return zero(method.getReturnType());
+                    }
+                });
+    }
+
+    /**
+     * The async mode of a request, its listeners called by the test.
+     */
+    static final class Async {
+
+        boolean started;
+        boolean completed;
+        final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+
+        final AsyncContext context = (AsyncContext) Proxy.newProxyInstance(Mocks.class.getClassLoader(),
+                new Class<?>[] { AsyncContext.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "addListener":
+                        listeners.add((AsyncListener) args[0]);
+                        return null;
+                    case "complete":
+                        completed = true;
+                        return null;
+                    default:
+                        return zero(method.getReturnType());
+                    }
+                });
+
+        void timeout() throws IOException {
+            for (AsyncListener listener : listeners)
+                listener.onTimeout(new AsyncEvent(context));
+        }
+
+        void error() throws IOException {
+            for (AsyncListener listener : listeners)
+                listener.onError(new AsyncEvent(context));
+        }
+    }
+
+    /**
+     * A response recording its status, headers, cookies and body.
+     */
+    static final class Response {
+
+        int status = 200;
+        final List<Cookie> cookies = new ArrayList<Cookie>();
+        final Map<String, String> headers = new HashMap<String, String>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private final ServletOutputStream stream = new ServletOutputStream() {
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+
+        String body() {
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        final HttpServletResponse raw = (HttpServletResponse) Proxy.newProxyInstance(Mocks.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "addCookie":
+                        cookies.add((Cookie) args[0]);
+                        return null;
+                    case "setStatus":
+                    case "sendError":
+                        status = (Integer) args[0];
+                        return null;
+                    case "getStatus":
+                        return status;
+                    case "setHeader":
+                    case "addHeader":
+                        headers.put((String) args[0], (String) args[1]);
+                        return null;
+                    case "getHeader":
+                        return headers.get(args[0]);
+                    case "getOutputStream":
+                        return stream;
+                    case "getCharacterEncoding":
+                        return "ISO-8859-1";
+                    default:
+                        return zero(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Object zero(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0d;
+        return null;
+    }
+}
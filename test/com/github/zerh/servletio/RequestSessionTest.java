@@ -0,0 +1,64 @@
+package com.github.zerh.servletio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import javax.servlet.http.Cookie;
+
+import org.junit.Test;
+
+public class RequestSessionTest {
+
+    private final MemorySessionStore store = new MemorySessionStore();
+    private final Sessions sessions = new Sessions(store, 1800);
+
+    private Request request(Mocks.Response response, Cookie... cookies) {
+        Request request = new Request(Mocks.request("/", Collections.<String, String> emptyMap(), cookies));
+        request.sessions = sessions;
+        request.rawResponse = response.raw;
+        return request;
+    }
+
+    @Test
+    public void sessionFalseWithoutCookieIsNull() {
+        Mocks.Response response = new Mocks.Response();
+        Request request = request(response);
+
+        assertNull(request.session(false));
+        assertTrue(response.cookies.isEmpty());
+    }
+
+    @Test
+    public void sessionFalseWithUnknownCookieIsNull() {
+        Mocks.Response response = new Mocks.Response();
+        assertNull(request(response, new Cookie(Sessions.COOKIE, "unknown")).session(false));
+    }
+
+    @Test
+    public void sessionTrueOpensSessionInStore() {
+        Mocks.Response response = new Mocks.Response();
+        Request request = request(response);
+
+        Session session = request.session(true);
+        assertNotNull(session);
+        assertTrue(session.isNew());
+        assertSame(session, request.session());
+        assertEquals(1, response.cookies.size());
+
+        session.attribute("user", "ada");
+        request.saveSession();
+
+        String id = response.cookies.get(0).getValue();
+        assertNotNull(store.get(id));
+
+        Request next = request(new Mocks.Response(), new Cookie(Sessions.COOKIE, id));
+        Session stored = next.session(false);
+        assertNotNull(stored);
+        assertEquals("ada", stored.attribute("user"));
+    }
+}